@@ -0,0 +1,96 @@
+package net.alex.game.benchmarks;
+
+import com.badlogic.gdx.utils.Array;
+import net.alex.game.ClientManager;
+import net.alex.game.PlayerGrid;
+import net.alex.game.network.PlayerInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client frame cost with many known players, headless: interpolating everyone (the old frame)
+ * against querying the PlayerGrid around an 800x600 camera and interpolating only those, plus
+ * the grid upkeep when a snapshot moves everyone. A frame at 60 FPS has ~16 ms in total.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClientCullingBenchmark {
+    private static final float WORLD = 10_000;
+    private static final float VIEW_WIDTH = 800, VIEW_HEIGHT = 600;
+    // as ClientManager: 256 unit cells, 100 ms interpolation delay + 100 ms extrapolation
+    private static final float CELL_SIZE = 256;
+    private static final float MARGIN = PlayerInput.SPEED * 0.2f;
+    private static final float MAX_EXTRAPOLATION = 0.1f;
+    private static final double TICK = 1.0 / 30;
+
+    @Param({"10000", "50000"})
+    public int players;
+
+    private ClientManager.PlayerData[] all;
+    private final PlayerGrid grid = new PlayerGrid(CELL_SIZE);
+    private final Array<ClientManager.PlayerData> nearby = new Array<>(false, 256, ClientManager.PlayerData.class);
+    private final Array<ClientManager.PlayerData> visible = new Array<>(false, 256, ClientManager.PlayerData.class);
+    private double renderTime;
+    private int tick;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        all = new ClientManager.PlayerData[players];
+        for (int i = 0; i < players; i++) {
+            float x = random.nextFloat() * WORLD, y = random.nextFloat() * WORLD;
+            ClientManager.PlayerData p = new ClientManager.PlayerData(i + 1, "Player_" + i, x, y, 1 + random.nextInt(3));
+            p.states.reset(0, x, y);
+            all[i] = p;
+            grid.update(p, x, y);
+        }
+        for (tick = 1; tick < 8; tick++) snapshot();
+        renderTime = (tick - 3) * TICK; // between two states, like the interpolation delay keeps it
+    }
+
+    @Benchmark
+    public int interpolateAll() {
+        for (ClientManager.PlayerData p : all) p.update(renderTime, MAX_EXTRAPOLATION);
+        return all.length;
+    }
+
+    @Benchmark
+    public int interpolateVisible() {
+        float minX = WORLD / 2 - VIEW_WIDTH / 2, maxX = minX + VIEW_WIDTH;
+        float minY = WORLD / 2 - VIEW_HEIGHT / 2, maxY = minY + VIEW_HEIGHT;
+        nearby.clear();
+        visible.clear();
+        grid.query(minX - MARGIN, minY - MARGIN, maxX + MARGIN, maxY + MARGIN, nearby);
+        for (int i = 0; i < nearby.size; i++) {
+            ClientManager.PlayerData p = nearby.get(i);
+            p.update(renderTime, MAX_EXTRAPOLATION);
+            if (p.x >= minX && p.x <= maxX && p.y >= minY && p.y <= maxY) visible.add(p);
+        }
+        return visible.size;
+    }
+
+    /** One snapshot in which every player moved by a step: new state plus grid move. */
+    @Benchmark
+    public int snapshot() {
+        double time = tick++ * TICK;
+        float step = PlayerInput.SPEED * (float) TICK;
+        for (int i = 0; i < all.length; i++) {
+            ClientManager.PlayerData p = all[i];
+            float x = p.x + ((i & 1) == 0 ? step : -step), y = p.y;
+            p.x = x;
+            p.states.add(time, x, y);
+            grid.update(p, x, y);
+        }
+        return all.length;
+    }
+}
@@ -0,0 +1,108 @@
+package net.alex.game.benchmarks;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import net.alex.game.network.Network;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What compressing the bulk packets costs and saves: the server's write and the client's read of
+ * a join state chunk and of an event batch, as they go out wrapped in {@link Network.Compressed}
+ * with compression off and with Deflate. The encoded size of each is printed during setup.
+ *
+ * <p>The samples look like the server's: a join state chunk holds players from the grid cells
+ * around the joining one, an event batch the players who walked into view with their names.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CompressionBenchmark {
+    private static final int PLAYERS = 64; // one join state chunk
+    private static final int JOINED = 16;
+    private static final float AOI_RADIUS = 700;
+
+    @Param({"WorldState", "EventBatch"})
+    public String packet;
+
+    @Param({"NONE", "DEFLATE"})
+    public String codec;
+
+    private final Kryo kryo = new Kryo();
+    private final Output output = new Output(64 * 1024);
+    private final Input input = new Input();
+    private final Network.Compressed compressed = new Network.Compressed();
+
+    @Setup
+    public void setup() {
+        kryo.setReferences(false);
+        Network.register(kryo, Network.positionFractionBits);
+        Random random = new Random(42);
+        compressed.packet = packet.equals("WorldState") ? worldState(random) : eventBatch(random);
+        compressed.codec = codec.equals("DEFLATE") ? Network.Compressed.DEFLATE : Network.Compressed.NONE;
+        compressed.minBytes = 0;
+
+        output.reset();
+        kryo.writeClassAndObject(output, compressed.packet);
+        int plain = output.position();
+        output.reset();
+        kryo.writeClassAndObject(output, compressed);
+        input.setBuffer(output.toBytes());
+        System.out.println(packet + " " + codec + ": " + plain + " -> " + output.position() + " bytes");
+    }
+
+    @Benchmark
+    public int write() {
+        output.reset();
+        kryo.writeClassAndObject(output, compressed);
+        return output.position();
+    }
+
+    @Benchmark
+    public Object read() {
+        input.setPosition(0);
+        Object read = kryo.readClassAndObject(input);
+        Network.free(kryo, read);
+        return read;
+    }
+
+    private static Network.WorldState worldState(Random random) {
+        Network.WorldState state = new Network.WorldState();
+        state.partCount = 2;
+        state.players = new Network.PlayerUpdate[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            Network.PlayerUpdate u = new Network.PlayerUpdate();
+            u.id = 1 + random.nextInt(5000);
+            u.x = 1000 + (random.nextFloat() * 2 - 1) * AOI_RADIUS;
+            u.y = 1000 + (random.nextFloat() * 2 - 1) * AOI_RADIUS;
+            u.shape = 1 + random.nextInt(3);
+            state.players[i] = u;
+        }
+        return state;
+    }
+
+    private static Network.EventBatch eventBatch(Random random) {
+        Network.EventBatch batch = new Network.EventBatch();
+        batch.tick = 100_000;
+        for (int i = 0; i < 4; i++) batch.addLeft(1 + i * 1200 + random.nextInt(1200)); // ascending, as the server sends them
+        for (int i = 0; i < JOINED; i++) {
+            Network.PlayerJoined j = batch.addJoined();
+            j.id = 1 + random.nextInt(5000);
+            j.name = "Player_" + (1_700_000_000_000L + random.nextInt(1_000_000_000));
+            j.x = 1000 + (random.nextFloat() * 2 - 1) * AOI_RADIUS;
+            j.y = 1000 + (random.nextFloat() * 2 - 1) * AOI_RADIUS;
+            j.shape = 1 + random.nextInt(3);
+        }
+        return batch;
+    }
+}
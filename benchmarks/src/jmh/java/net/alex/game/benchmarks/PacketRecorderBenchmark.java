@@ -0,0 +1,70 @@
+package net.alex.game.benchmarks;
+
+import net.alex.game.PacketRecorder;
+import net.alex.game.network.Network;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What recording costs per packet, a typical input batch: alone, and with the tick's workers
+ * and the transport's update thread recording at the same time. Short iterations, each into a
+ * fresh file, as a second of recording takes hundreds of megabytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(time = 1)
+@Measurement(time = 1)
+public class PacketRecorderBenchmark {
+    private File file;
+    private PacketRecorder recorder;
+
+    @State(Scope.Thread)
+    public static class Packet {
+        final Network.InputBatch batch = new Network.InputBatch();
+
+        @Setup
+        public void setup() {
+            batch.firstSequence = 1000;
+            batch.count = 6;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        file = File.createTempFile("recorder-bench", ".rec");
+        recorder = new PacketRecorder(file, Long.MAX_VALUE, 30);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        recorder.close();
+        file.delete();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void record(Packet packet) {
+        recorder.record(PacketRecorder.IN, 1, packet.batch);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordConcurrently(Packet packet) {
+        recorder.record(PacketRecorder.IN, 1, packet.batch);
+    }
+}
@@ -0,0 +1,152 @@
+package net.alex.game.benchmarks;
+
+import com.badlogic.gdx.utils.IntMap;
+import net.alex.game.PlayerRegistry;
+import net.alex.game.PlayerStore;
+import net.alex.game.ServerMain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistence at realistic registry sizes: startup load (the player table plus a journal with
+ * a tenth of the players changed since), writing every player as dirty, and returning players
+ * read from disk through a {@link PlayerRegistry} whose cache holds a tenth of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PlayerStoreBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int players;
+
+    private File dir;
+    private String loadName, saveName;
+    private IntMap<ServerMain.Player> registry;
+    private int[] returning;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("playerstore-bench").toFile();
+        loadName = new File(dir, "load").getPath();
+        saveName = new File(dir, "save").getPath();
+        registry = players(players);
+
+        // everyone in the journal, moved into the table on the next load...
+        write(loadName, registry, players);
+        PlayerStore opening = new PlayerStore(loadName, Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        opening.load();
+        opening.close();
+        // ...then a tenth of them changed again
+        write(loadName, registry, players / 10);
+        returning = new Random(7).ints(RETURNING, 1, players + 1).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public int load() throws IOException {
+        PlayerStore store = new PlayerStore(loadName, Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        int loaded = store.load();
+        store.close();
+        return loaded;
+    }
+
+    private static final int RETURNING = 1000; // players looked up per invocation
+
+    /** A started store and an empty cache of a tenth of the players, for every batch of returning players. */
+    @State(Scope.Thread)
+    public static class Reading {
+        PlayerStore store;
+        PlayerRegistry registry;
+
+        @Setup(Level.Invocation)
+        public void open(PlayerStoreBenchmark bench) throws IOException {
+            store = new PlayerStore(bench.loadName, Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+            store.load();
+            registry = new PlayerRegistry(store, bench.players / 10);
+            store.start(Runnable::run, registry);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            store.close();
+        }
+    }
+
+    @Benchmark
+    public int reconnect(Reading reading) {
+        int found = 0;
+        for (int id : returning) {
+            if (reading.registry.get(id) != null) found++;
+        }
+        return found;
+    }
+
+    /** A loaded, started store on an empty journal for every save. */
+    @State(Scope.Thread)
+    public static class Saving {
+        PlayerStore store;
+
+        @Setup(Level.Invocation)
+        public void freshJournal(PlayerStoreBenchmark bench) throws IOException {
+            new File(bench.saveName + ".players").delete();
+            new File(bench.saveName + ".journal").delete();
+            store = new PlayerStore(bench.saveName, Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+            store.load();
+            store.start(Runnable::run, resident(store, bench.registry));
+        }
+    }
+
+    @Benchmark
+    public void saveAll(Saving saving) {
+        for (IntMap.Keys it = registry.keys(); it.hasNext; ) saving.store.markDirty(it.next());
+        saving.store.close(); // writes the dirty records before returning
+    }
+
+    private static void write(String name, IntMap<ServerMain.Player> registry, int count) throws IOException {
+        PlayerStore store = new PlayerStore(name, Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        store.load();
+        store.start(Runnable::run, resident(store, registry));
+        for (int id = 1; id <= count; id++) store.markDirty(id);
+        store.close();
+    }
+
+    /** Every player in memory, offline. */
+    private static PlayerRegistry resident(PlayerStore store, IntMap<ServerMain.Player> players) {
+        PlayerRegistry registry = new PlayerRegistry(store, players.size);
+        for (ServerMain.Player p : players.values()) registry.add(p);
+        return registry;
+    }
+
+    private static IntMap<ServerMain.Player> players(int count) {
+        Random random = new Random(42);
+        IntMap<ServerMain.Player> registry = new IntMap<>();
+        for (int id = 1; id <= count; id++) {
+            ServerMain.Player p = new ServerMain.Player(id, "Player_" + (1_700_000_000_000L + id), -1);
+            p.x = random.nextFloat() * 10_000;
+            p.y = random.nextFloat() * 10_000;
+            p.shape = 1 + random.nextInt(3);
+            registry.put(id, p);
+        }
+        return registry;
+    }
+}
@@ -0,0 +1,166 @@
+package net.alex.game.benchmarks;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import net.alex.game.network.Network;
+import net.alex.game.network.PlayerInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kryo write and read of every packet registered in {@link Network#register}, with the same
+ * registrations and serializers KryoNet uses. Read results are freed back to their pools,
+ * like the game does, so pooled packets are measured without allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializationBenchmark {
+    // players in WorldState, changed entities in WorldSnapshot: one full snapshot part
+    private static final int ENTITIES = 64;
+
+    @Param({"RegisterPlayer", "AssignId", "PlayerJoined", "PlayerLeft", "PlayerPosition", "PlayerUpdate",
+            "InputBatch", "WorldState", "WorldSnapshot", "SnapshotAck", "EventBatch"})
+    public String packet;
+
+    private final Kryo kryo = new Kryo();
+    private final Output output = new Output(64 * 1024);
+    private final Input input = new Input();
+    private Object sample;
+
+    @Setup
+    public void setup() {
+        kryo.setReferences(false); // KryoNet's default
+        Network.register(kryo, Network.positionFractionBits);
+        sample = create(packet, new Random(42));
+
+        output.reset();
+        kryo.writeClassAndObject(output, sample);
+        input.setBuffer(output.toBytes());
+    }
+
+    @Benchmark
+    public int write() {
+        output.reset();
+        kryo.writeClassAndObject(output, sample);
+        return output.position();
+    }
+
+    @Benchmark
+    public Object read() {
+        input.setPosition(0);
+        Object read = kryo.readClassAndObject(input);
+        Network.free(kryo, read);
+        return read;
+    }
+
+    static Object create(String name, Random random) {
+        switch (name) {
+            case "RegisterPlayer": {
+                Network.RegisterPlayer p = new Network.RegisterPlayer();
+                p.id = 1234;
+                p.name = "Player_1700000000000";
+                return p;
+            }
+            case "AssignId": {
+                Network.AssignId p = new Network.AssignId();
+                p.id = 1234;
+                p.tickRate = 30;
+                return p;
+            }
+            case "PlayerJoined": {
+                Network.PlayerJoined p = new Network.PlayerJoined();
+                p.id = 1234;
+                p.name = "Player_1700000000000";
+                p.x = random.nextFloat() * 2000;
+                p.y = random.nextFloat() * 2000;
+                return p;
+            }
+            case "PlayerLeft": {
+                Network.PlayerLeft p = new Network.PlayerLeft();
+                p.id = 1234;
+                return p;
+            }
+            case "PlayerPosition": {
+                Network.PlayerPosition p = new Network.PlayerPosition();
+                p.id = 1234;
+                p.x = random.nextFloat() * 2000;
+                p.y = random.nextFloat() * 2000;
+                return p;
+            }
+            case "PlayerUpdate":
+                return update(1234, random);
+            case "InputBatch": {
+                Network.InputBatch p = new Network.InputBatch();
+                p.firstSequence = 100_000;
+                p.count = 3;
+                for (int i = 0; i < p.count; i++) p.inputs[i] = PlayerInput.pack(PlayerInput.UP | PlayerInput.RIGHT, 1);
+                return p;
+            }
+            case "WorldState": {
+                Network.WorldState p = new Network.WorldState();
+                p.players = new Network.PlayerUpdate[ENTITIES];
+                for (int i = 0; i < ENTITIES; i++) p.players[i] = update(i + 1, random);
+                return p;
+            }
+            case "WorldSnapshot": {
+                Network.WorldSnapshot p = new Network.WorldSnapshot();
+                p.tick = 100_000;
+                p.baselineTick = 99_997;
+                p.inputSequence = 200_000;
+                for (int i = 0; i < ENTITIES; i++) {
+                    Network.EntityDelta d = p.addChanged();
+                    d.id = i * 3 + 1;
+                    d.fields = i % 4 == 0 ? Network.EntityDelta.ALL : Network.EntityDelta.X | Network.EntityDelta.Y;
+                    d.x = random.nextFloat() * 2000;
+                    d.y = random.nextFloat() * 2000;
+                    d.shape = 1 + random.nextInt(3);
+                }
+                p.addRemoved(500);
+                p.addRemoved(503);
+                return p;
+            }
+            case "SnapshotAck": {
+                Network.SnapshotAck p = new Network.SnapshotAck();
+                p.tick = 100_000;
+                return p;
+            }
+            case "EventBatch": {
+                Network.EventBatch p = new Network.EventBatch();
+                p.tick = 100_000;
+                p.addLeft(500);
+                p.addLeft(503);
+                for (int i = 2; i < Network.EventBatch.MAX_EVENTS; i++) {
+                    Network.PlayerJoined j = p.addJoined();
+                    j.id = i * 3 + 1;
+                    j.name = "Player_" + (1_700_000_000_000L + i);
+                    j.x = random.nextFloat() * 2000;
+                    j.y = random.nextFloat() * 2000;
+                    j.shape = 1 + random.nextInt(3);
+                }
+                return p;
+            }
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    static Network.PlayerUpdate update(int id, Random random) {
+        Network.PlayerUpdate u = new Network.PlayerUpdate();
+        u.id = id;
+        u.x = random.nextFloat() * 2000;
+        u.y = random.nextFloat() * 2000;
+        u.shape = 1 + random.nextInt(3);
+        return u;
+    }
+}
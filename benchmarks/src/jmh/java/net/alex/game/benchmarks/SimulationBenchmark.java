@@ -0,0 +1,77 @@
+package net.alex.game.benchmarks;
+
+import net.alex.game.ServerMain;
+import net.alex.game.Simulation;
+import net.alex.game.network.PlayerInput;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link Simulation} step per invocation, headless: {@code awake} of the {@code entities}
+ * players sent the two commands a 30 Hz tick gets at 60 Hz input, the rest are idle. Besides
+ * steps per millisecond, JMH reports the {@code entities} counter, awake entities simulated per
+ * millisecond; idle ones should cost nothing, so it stays about the same as the registry grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SimulationBenchmark {
+    private static final int COMMANDS_PER_TICK = 2;
+
+    @Param({"10000", "100000"})
+    public int entities;
+
+    @Param({"0.01", "0.1", "1"})
+    public double awake;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Simulated {
+        public long entities;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            entities = 0;
+        }
+    }
+
+    private Simulation simulation;
+    private int[] awakeIds;
+    private final byte[] commands = new byte[4];
+
+    @Setup
+    public void setup() {
+        simulation = new Simulation(30, id -> {});
+        for (int id = 1; id <= entities; id++) {
+            simulation.add(new ServerMain.Player(id, "Player_" + id, id));
+        }
+        // awake players spread over the registry, not one block of it
+        Random random = new Random(42);
+        awakeIds = random.ints(1, entities + 1).distinct().limit(Math.max(1, (long) (entities * awake))).toArray();
+        commands[0] = PlayerInput.pack(PlayerInput.UP, 1);
+        commands[1] = PlayerInput.pack(PlayerInput.UP | PlayerInput.RIGHT, 1);
+        commands[2] = PlayerInput.pack(PlayerInput.DOWN, 2);
+        commands[3] = PlayerInput.pack(PlayerInput.LEFT | PlayerInput.DOWN, 3);
+    }
+
+    @Benchmark
+    public void step(Simulated simulated) {
+        int[] ids = awakeIds;
+        for (int i = 0; i < ids.length; i++) {
+            for (int c = 0; c < COMMANDS_PER_TICK; c++) simulation.input(ids[i], commands[(i + c) & 3]);
+        }
+        simulation.step();
+        simulated.entities += ids.length;
+    }
+}
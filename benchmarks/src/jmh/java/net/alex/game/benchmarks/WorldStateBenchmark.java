@@ -0,0 +1,67 @@
+package net.alex.game.benchmarks;
+
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import net.alex.game.ServerMain;
+import net.alex.game.ServerWorld;
+import net.alex.game.network.Network;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building (and encoding) the WorldState chunks a joining client gets, by the number of
+ * online players around it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WorldStateBenchmark {
+    @Param({"100", "1000", "10000", "100000"})
+    public int players;
+
+    private static final int CHUNK_SIZE = 64; // as ServerMain
+
+    private final Array<ServerMain.Player> nearby = new Array<>(true, 64, ServerMain.Player.class);
+    private final Kryo kryo = new Kryo();
+    private final Output output = new Output(64 * 1024, -1);
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int id = 1; id <= players; id++) {
+            ServerMain.Player p = new ServerMain.Player(id, "Player_" + id, -1);
+            p.x = random.nextFloat() * 10_000;
+            p.y = random.nextFloat() * 10_000;
+            p.shape = 1 + random.nextInt(3);
+            nearby.add(p);
+        }
+        kryo.setReferences(false);
+        Network.register(kryo, Network.positionFractionBits);
+    }
+
+    @Benchmark
+    public Array<Network.WorldState> build() {
+        return ServerWorld.worldState(nearby, CHUNK_SIZE);
+    }
+
+    @Benchmark
+    public int buildAndWrite() {
+        int bytes = 0;
+        for (Network.WorldState chunk : ServerWorld.worldState(nearby, CHUNK_SIZE)) {
+            output.reset();
+            kryo.writeClassAndObject(output, chunk);
+            bytes += output.position();
+        }
+        return bytes;
+    }
+}
@@ -1,24 +1,89 @@
 package net.alex.game;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.Json;
-import com.esotericsoftware.kryonet.*;
 import net.alex.game.network.Network;
+import net.alex.game.network.PlayerInput;
+import net.alex.game.network.SnapshotFrame;
+import net.alex.game.network.Transport;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection to the server and the client's picture of the world.
+ * KryoNet's update thread decodes packets and hands the results over through a
+ * {@link RenderHandoff}; {@link #players}, prediction and the interpolation clock belong to the
+ * render thread, which applies the handed-over entries at the start of {@link #update}.
+ */
 public class ClientManager {
-    private Client client;
+    // KryoNet, or -Dtransport=loopback for a server in this JVM
+    private static final Transport TRANSPORT = Transport.fromSystemProperties();
+    private static final int WRITE_BUFFER_SIZE = 8192, OBJECT_BUFFER_SIZE = 2048; // KryoNet's client defaults
+    private volatile Transport.Client client; // replaced by the redirect thread
     private boolean connecting = false;
     private volatile boolean connected = false;
     private boolean readyToEnterGame = false;
+    private volatile Network.ZoneRedirect redirect; // set while moving on to another zone server
 
-    private final HashMap<Integer, PlayerData> players = new HashMap<>();
+    // ---- Render thread ----
+    private final IntMap<PlayerData> players = new IntMap<>();
     private PlayerData localPlayer;
+    private int playerId; // from AssignId
+    private final SnapshotFrame shown = new SnapshotFrame(-1, 64); // newest applied frame, tick -1 = none yet
+    private double shownTime; // its server time
+
+    // ---- Network thread to render thread ----
+    private final RenderHandoff handoff = new RenderHandoff();
+    // Bumped on every disconnect; entries from before it are skipped and the render state starts over
+    private final AtomicInteger generation = new AtomicInteger();
+    private int shownGeneration;
+
+    // ---- Network thread ----
+    // Delta snapshots: received frames by tick, and the parts of the one being received.
+    // Started over when the generation changed, by this thread, as it may be in the middle of one
+    private int snapshotGeneration;
+    private final SnapshotFrame[] history = new SnapshotFrame[SnapshotFrame.HISTORY];
+    private SnapshotFrame latest = SnapshotFrame.EMPTY;
+    // Parts are pooled by the serializer and freed once applied or replaced by a newer tick
+    private Network.WorldSnapshot[] assembling = new Network.WorldSnapshot[4];
+    private int assemblingTick = -1, assemblingCount, assembledParts;
+
+    // Sent at a fixed rate / every snapshot, serialized right away so one instance each is enough
+    private final Network.InputBatch inputBatch = new Network.InputBatch();
+    private final Network.SnapshotAck ack = new Network.SnapshotAck();
+
+    // Local movement is predicted and inputs go out in batches, e.g. -DinputSendRate=20
+    private static final float INPUT_SEND_INTERVAL = 1f / Integer.getInteger("inputSendRate", 20);
+    private final InputPredictor prediction = new InputPredictor();
+    private float inputSendTimer;
+
+    // Remote players are drawn this far behind the server (e.g. -DinterpolationDelay=100 ms), plus
+    // the extra ticks between snapshots while the server sends us fewer, and continue past their
+    // newest state for at most -DmaxExtrapolation ms when snapshots are late
+    private static final double INTERPOLATION_DELAY = Integer.getInteger("interpolationDelay", 100) / 1000.0;
+    private static final float MAX_EXTRAPOLATION = Integer.getInteger("maxExtrapolation", 100) / 1000f;
+    private static final double CLOCK_SNAP = 0.25; // seconds off before the render clock jumps instead of drifting
+    private double tickInterval = 1.0 / 30; // from AssignId, snapshots are stamped with tick * tickInterval
+    // Render thread: server time of the newest frame and the local time it arrived at
+    private double arrivedTime = -1;
+    private long arrivedNanos;
+    private double renderTime = -1;
+    private double interpolationDelay = INTERPOLATION_DELAY;
+
+    // Remote players are indexed by their newest state; drawn positions lag or lead it by at most
+    // the interpolation delay plus extrapolation, so the camera query is widened by that distance
+    private static final float GRID_CELL_SIZE = 256;
+    private static final float CULL_MARGIN = (float) (PlayerInput.SPEED * (INTERPOLATION_DELAY + MAX_EXTRAPOLATION));
+    private final PlayerGrid grid = new PlayerGrid(GRID_CELL_SIZE);
+    private final Array<PlayerData> nearby = new Array<>(false, 256, PlayerData.class);
 
     private Profile profile; // persistent profile
     private final Json json = new Json();
@@ -31,12 +96,9 @@ public class ClientManager {
 
     /** Called once when creating client, can be reused for reconnect */
     private void setupClient() {
-        client = new Client();
-        Network.register(client);
-
-        client.addListener(new Listener() {
+        client = TRANSPORT.newClient(WRITE_BUFFER_SIZE, OBJECT_BUFFER_SIZE, Network::register, new Transport.Listener() {
             @Override
-            public void connected(Connection c) {
+            public void connected(Transport.Link c) {
                 System.out.println("✅ Connected to server.");
 
                 connected = true;
@@ -45,58 +107,285 @@ public class ClientManager {
                 Network.RegisterPlayer reg = new Network.RegisterPlayer();
                 reg.id = profile.id;
                 reg.name = profile.name;
-                client.sendTCP(reg);
+                reg.compression = Network.Compressed.SUPPORTED;
+                client.sendReliable(reg);
 
                 // safely switch screen from LibGDX render thread
                 Gdx.app.postRunnable(() -> readyToEnterGame = true);
             }
 
             @Override
-            public void disconnected(Connection c) {
-                System.out.println("⚠️ Disconnected from server.");
-                players.clear();
-                localPlayer = null;
+            public void disconnected(Transport.Link c) {
+                Network.ZoneRedirect to = redirect;
+                redirect = null;
+                generation.incrementAndGet();
                 connected = false;
+
+                if (to != null) { // handed off: stay in game and reconnect to the zone that has us now
+                    connecting = true;
+                    Transport.Client old = client;
+                    new Thread(() -> {
+                        try { old.stop(); } catch (Exception ignored) {}
+                        if (!connectTo(to.host, to.tcpPort, to.udpPort)) backToFirstScreen();
+                    }, "ClientRedirectThread").start();
+                    return;
+                }
+
+                System.out.println("⚠️ Disconnected from server.");
                 connecting = false;
 
                 try { client.stop(); } catch (Exception ignored) {}
-
-                // Go back to first screen safely
-                Gdx.app.postRunnable(() -> {
-                    if (Gdx.app.getApplicationListener() instanceof MainGame game) {
-                        game.setScreen(new FirstScreen(game));
-                    }
-                });
+                backToFirstScreen();
             }
 
             @Override
-            public void received(Connection c, Object object) {
+            public void received(Transport.Link c, Object object) {
+                if (object instanceof Network.WorldSnapshot part) {
+                    receiveSnapshot(part);
+                    return;
+                }
+
+                if (object instanceof Network.ZoneRedirect to) {
+                    if (to.playerId != 0) { // a new player, numbered by the coordinator
+                        profile.id = to.playerId;
+                        saveProfile();
+                    }
+                    System.out.println("🔀 Moving to zone server " + to.host + ":" + to.tcpPort);
+                    redirect = to;
+                    client.close(); // disconnected() connects again
+                    return;
+                }
+
+                int gen = generation.get();
+                RenderHandoff.Buffer out = handoff.begin();
                 if (object instanceof Network.AssignId assign) {
                     profile.id = assign.id;
+                    if (assign.tickRate > 0) tickInterval = 1.0 / assign.tickRate;
                     saveProfile();
                     System.out.println("Assigned permanent ID: " + assign.id);
+                    out.add(RenderHandoff.ASSIGN, gen).id = assign.id;
 
                 } else if (object instanceof Network.WorldState state) {
-                    players.clear();
+                    if (state.part == 0) out.add(RenderHandoff.RESET, gen);
                     for (Network.PlayerUpdate u : state.players) {
-                        addOrUpdate(u.id, u.x, u.y, "Unknown", u.shape);
+                        RenderHandoff.Entry e = out.add(RenderHandoff.STATE, gen);
+                        e.id = u.id;
+                        e.x = u.x;
+                        e.y = u.y;
+                        e.shape = u.shape;
+                        client.free(u);
                     }
 
+                } else if (object instanceof Network.EventBatch events) {
+                    for (int i = 0; i < events.leftCount; i++) out.add(RenderHandoff.LEFT, gen).id = events.left[i];
+                    for (int i = 0; i < events.joinedCount; i++) joined(out.add(RenderHandoff.JOINED, gen), events.joined[i]);
+                    client.free(events);
+
                 } else if (object instanceof Network.PlayerJoined joined) {
-                    System.out.println("Player joined: " + joined.name);
-                    addOrUpdate(joined.id, 0, 0, joined.name, 1);
+                    joined(out.add(RenderHandoff.JOINED, gen), joined);
 
                 } else if (object instanceof Network.PlayerLeft left) {
-                    System.out.println("Player left: " + left.id);
-                    players.remove(left.id);
-
-                } else if (object instanceof Network.PlayerUpdate u) {
-                    addOrUpdate(u.id, u.x, u.y, null, u.shape);
+                    out.add(RenderHandoff.LEFT, gen).id = left.id;
                 }
+                handoff.end();
             }
         });
     }
 
+    private static void joined(RenderHandoff.Entry e, Network.PlayerJoined joined) {
+        e.id = joined.id;
+        e.name = joined.name;
+        e.x = joined.x;
+        e.y = joined.y;
+        e.shape = joined.shape;
+    }
+
+    // === Delta Snapshots ===
+    /** Network thread only, like the pool the parts come from. */
+    private void receiveSnapshot(Network.WorldSnapshot part) {
+        int gen = generation.get();
+        if (gen != snapshotGeneration) { // disconnected since the last one
+            snapshotGeneration = gen;
+            resetSnapshots();
+        }
+        if (part.tick <= latest.tick || part.tick < assemblingTick) { // late or duplicate
+            client.free(part);
+            return;
+        }
+        if (part.tick != assemblingTick) {
+            freeAssembling();
+            assemblingTick = part.tick;
+            assemblingCount = part.partCount;
+            if (assembling.length < assemblingCount) assembling = new Network.WorldSnapshot[assemblingCount];
+        }
+        if (part.part >= assemblingCount || assembling[part.part] != null) {
+            client.free(part);
+            return;
+        }
+        assembling[part.part] = part;
+        if (++assembledParts < assemblingCount) return;
+
+        SnapshotFrame baseline = SnapshotFrame.EMPTY;
+        if (part.baselineTick >= 0) {
+            baseline = history[part.baselineTick % SnapshotFrame.HISTORY];
+            // baseline no longer known: skip, the server falls back to a full snapshot once our ack is too old
+            if (baseline == null || baseline.tick != part.baselineTick) {
+                freeAssembling();
+                return;
+            }
+        }
+
+        // reuse the frame this tick evicts from the history, unless it is still needed here
+        SnapshotFrame frame = history[part.tick % SnapshotFrame.HISTORY];
+        if (frame == null || frame == baseline || frame == latest) frame = new SnapshotFrame(part.tick, 64);
+        SnapshotFrame.apply(baseline, assembling, assemblingCount, frame);
+        int inputSequence = part.inputSequence;
+        int interval = part.interval;
+        freeAssembling();
+
+        history[frame.tick % SnapshotFrame.HISTORY] = frame;
+        latest = frame;
+
+        // the render thread gets a copy, the history frame is reused a second from now
+        RenderHandoff.Entry e = handoff.begin().addFrame(gen);
+        e.frame.set(frame);
+        e.time = frame.tick * tickInterval;
+        e.inputSequence = inputSequence;
+        e.interval = interval;
+        e.arrivedNanos = System.nanoTime();
+        handoff.end();
+
+        ack.tick = frame.tick;
+        client.sendUnreliable(ack);
+    }
+
+    private void freeAssembling() {
+        for (int i = 0; i < assemblingCount; i++) {
+            if (assembling[i] != null) client.free(assembling[i]);
+            assembling[i] = null;
+        }
+        assembledParts = 0;
+    }
+
+    // === Render thread ===
+    /** Applies everything the network thread handed over since the last frame, in order. */
+    private void applyReceived() {
+        int gen = generation.get();
+        if (gen != shownGeneration) { // disconnected in between: start over
+            shownGeneration = gen;
+            clearShown();
+        }
+        RenderHandoff.Buffer received = handoff.swap();
+        if (received == null) return;
+
+        for (int i = 0; i < received.size(); i++) {
+            RenderHandoff.Entry e = received.get(i);
+            if (e.generation != gen) continue;
+            switch (e.kind) {
+                case RenderHandoff.ASSIGN:
+                    playerId = e.id;
+                    localPlayer = players.get(e.id); // in case a snapshot was faster
+                    if (localPlayer != null) {
+                        grid.remove(localPlayer); // predicted, not interpolated
+                        prediction.reset(localPlayer.x, localPlayer.y, localPlayer.shape);
+                    }
+                    break;
+                case RenderHandoff.RESET:
+                    // a first look around until the first snapshot, which then supersedes every later chunk
+                    if (shown.tick < 0) clearPlayers();
+                    break;
+                case RenderHandoff.STATE:
+                    // names come with the join events, which may have been faster
+                    if (shown.tick < 0 && !players.containsKey(e.id)) addOrUpdate(e.id, e.x, e.y, "Unknown", e.shape);
+                    break;
+                case RenderHandoff.JOINED:
+                    System.out.println("Player joined: " + e.name);
+                    PlayerData known = players.get(e.id);
+                    if (known != null) known.name = e.name; // snapshot got here first
+                    else addOrUpdate(e.id, e.x, e.y, e.name, e.shape);
+                    break;
+                case RenderHandoff.LEFT:
+                    System.out.println("Player left: " + e.id);
+                    removePlayer(e.id);
+                    break;
+                case RenderHandoff.FRAME:
+                    showFrame(e);
+                    break;
+            }
+        }
+    }
+
+    private void showFrame(RenderHandoff.Entry e) {
+        if (shown.tick < 0) dropUnseen(e.frame);
+        shownTime = e.time;
+        applyFrame(shown, e.frame);
+        shown.set(e.frame);
+        arrivedNanos = e.arrivedNanos;
+        arrivedTime = e.time;
+        interpolationDelay = INTERPOLATION_DELAY + (Math.max(1, e.interval) - 1) * tickInterval;
+
+        int self = shown.indexOf(playerId);
+        if (self >= 0) prediction.reconcile(e.inputSequence, shown.xs[self], shown.ys[self]);
+    }
+
+    private void clearShown() {
+        clearPlayers();
+        shown.reset(-1);
+        arrivedTime = -1;
+        renderTime = -1;
+    }
+
+    /** Brings {@link #players} from the previously applied frame to {@code frame}, adding a state for everyone in it. */
+    private void applyFrame(SnapshotFrame previous, SnapshotFrame frame) {
+        int i = 0, j = 0;
+        while (i < previous.size || j < frame.size) {
+            int oldId = i < previous.size ? previous.ids[i] : Integer.MAX_VALUE;
+            int newId = j < frame.size ? frame.ids[j] : Integer.MAX_VALUE;
+
+            if (oldId < newId) {
+                removePlayer(oldId);
+                i++;
+            } else {
+                // unchanged players get a state too, otherwise they would be extrapolated
+                addOrUpdate(newId, frame.xs[j], frame.ys[j], null, frame.shapes[j], shownTime);
+                if (oldId == newId) i++;
+                j++;
+            }
+        }
+    }
+
+    /** Removes players from the join state that the first snapshot shows are out of range. */
+    private void dropUnseen(SnapshotFrame frame) {
+        for (IntMap.Entries<PlayerData> it = players.entries(); it.hasNext(); ) {
+            IntMap.Entry<PlayerData> entry = it.next();
+            if (entry.key != playerId && frame.indexOf(entry.key) < 0) {
+                grid.remove(entry.value);
+                it.remove();
+            }
+        }
+    }
+
+    private void removePlayer(int id) {
+        PlayerData p = players.remove(id);
+        if (p != null) grid.remove(p);
+    }
+
+    private void clearPlayers() {
+        players.clear();
+        grid.clear();
+        localPlayer = null;
+    }
+
+    /** Network thread, on a new {@link #generation}; the render side starts over once it sees it too. */
+    private void resetSnapshots() {
+        // parts still assembling may come from the previous connection's pool, so they are dropped
+        Arrays.fill(history, null);
+        latest = SnapshotFrame.EMPTY;
+        Arrays.fill(assembling, null);
+        assemblingTick = -1;
+        assemblingCount = assembledParts = 0;
+    }
+
     // === Profile Persistence ===
     private void loadProfile() {
         try {
@@ -140,23 +429,36 @@ public class ClientManager {
         profile.name = playerName;
         saveProfile();
 
-        new Thread(() -> {
-            try {
-                if (client == null || !client.isConnected()) setupClient();
-                client.start();
+        new Thread(() -> connectTo(ip, Network.tcpPort, Network.udpPort), "ClientConnectThread").start();
 
-                System.out.println("🌐 Connecting to server at " + ip + "...");
-                client.connect(5000, ip, Network.tcpPort, Network.udpPort);
+        return true;
+    }
 
-            } catch (Exception e) {
-                System.out.println("❌ Connection failed: " + e.getMessage());
-            } finally {
-                // even on failure, reset so we can retry later
-                connecting = false;
-            }
-        }, "ClientConnectThread").start();
+    /** Blocks until connected or failed; for the connect and redirect threads. */
+    private boolean connectTo(String host, int tcpPort, int udpPort) {
+        try {
+            if (client == null || !client.isConnected()) setupClient();
 
-        return true;
+            System.out.println("🌐 Connecting to server at " + host + ":" + tcpPort + "...");
+            client.connect(host, tcpPort, udpPort, 5000);
+            return true;
+
+        } catch (Exception e) {
+            System.out.println("❌ Connection failed: " + e.getMessage());
+            return false;
+        } finally {
+            // even on failure, reset so we can retry later
+            connecting = false;
+        }
+    }
+
+    private void backToFirstScreen() {
+        // Go back to first screen safely
+        Gdx.app.postRunnable(() -> {
+            if (Gdx.app.getApplicationListener() instanceof MainGame game) {
+                game.setScreen(new FirstScreen(game));
+            }
+        });
     }
 
     public void disconnect() {
@@ -167,52 +469,101 @@ public class ClientManager {
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            players.clear();
-            localPlayer = null;
+            generation.incrementAndGet(); // the update thread resets its snapshots on the next one
+            clearShown(); // render thread, like the UI calling this
             connecting = false;
         }
     }
 
-    public void sendPlayerUpdate(PlayerData me) {
+    /**
+     * Render thread: samples the held buttons (see PlayerInput) and shape into commands, moves the
+     * local player to the predicted position and sends unconfirmed commands every send interval.
+     */
+    public void updateInput(float delta, int buttons, int shape) {
+        PlayerData me = localPlayer;
         if (me == null) return;
-        Network.PlayerUpdate packet = new Network.PlayerUpdate();
-        packet.id = me.id;
-        packet.x = me.x;
-        packet.y = me.y;
-        packet.shape = me.shape;
-        client.sendUDP(packet);
-
-        // update local instantly
-        localPlayer.x = me.x;
-        localPlayer.y = me.y;
-        localPlayer.shape = me.shape;
+        prediction.sample(delta, buttons, shape);
+        me.x = prediction.getX();
+        me.y = prediction.getY();
+        me.shape = shape;
+
+        inputSendTimer += delta;
+        if (inputSendTimer >= INPUT_SEND_INTERVAL) {
+            inputSendTimer %= INPUT_SEND_INTERVAL;
+            if (prediction.fill(inputBatch)) client.sendUnreliable(inputBatch);
+        }
     }
 
+    /** Render thread: applies what arrived since the last frame and advances the interpolation clock. */
     public void update(float delta) {
-        for (PlayerData p : players.values()) {
-            if (localPlayer == null || p.id != localPlayer.id) {
-                p.update(delta);
-            }
+        applyReceived();
+        updateClock(delta);
+    }
+
+    /**
+     * Render thread, after {@link #update}: fills {@code out} with the players inside the rectangle,
+     * remote ones moved to their interpolated position. Players elsewhere are left alone until
+     * they come into view; interpolation only depends on the render time, so nothing is lost.
+     */
+    public Array<PlayerData> playersIn(float minX, float minY, float maxX, float maxY, Array<PlayerData> out) {
+        out.clear();
+        PlayerData me = localPlayer;
+        if (me != null && me.x >= minX && me.x <= maxX && me.y >= minY && me.y <= maxY) out.add(me);
+
+        nearby.clear();
+        grid.query(minX - CULL_MARGIN, minY - CULL_MARGIN, maxX + CULL_MARGIN, maxY + CULL_MARGIN, nearby);
+        for (int i = 0; i < nearby.size; i++) {
+            PlayerData p = nearby.get(i);
+            if (renderTime >= 0) p.update(renderTime, MAX_EXTRAPOLATION);
+            if (p.x >= minX && p.x <= maxX && p.y >= minY && p.y <= maxY) out.add(p);
+        }
+        return out;
+    }
+
+    /**
+     * Keeps {@link #renderTime} {@link #interpolationDelay} behind the estimated server time.
+     * It advances with the frame time and drifts towards the estimate, so arrival jitter
+     * doesn't make remote players stutter; only a large error makes it jump.
+     */
+    private void updateClock(float delta) {
+        double arrived = arrivedTime;
+        if (arrived < 0) return;
+        double target = arrived + (System.nanoTime() - arrivedNanos) / 1e9 - interpolationDelay;
+        if (renderTime < 0 || Math.abs(target - renderTime) > CLOCK_SNAP) {
+            renderTime = target;
+        } else {
+            renderTime += delta + (target - renderTime) * Math.min(1f, 2f * delta);
         }
     }
 
     private void addOrUpdate(int id, float x, float y, String name, int shape) {
+        addOrUpdate(id, x, y, name, shape, shownTime);
+    }
+
+    private void addOrUpdate(int id, float x, float y, String name, int shape, double time) {
         PlayerData p = players.get(id);
         if (p == null) {
             p = new PlayerData(id, name, x, y, shape);
+            p.states.reset(time, x, y);
             players.put(id, p);
-            if (id == profile.id) {
+            if (id == playerId) {
                 localPlayer = p;
+                prediction.reset(x, y, shape);
+            } else {
+                grid.update(p, x, y);
             }
+        } else if (p == localPlayer) {
+            // position and shape are predicted, see updateInput
+            if (name != null) p.name = name;
         } else {
-            p.targetX = x;
-            p.targetY = y;
+            p.states.add(time, x, y);
+            grid.update(p, x, y);
             if (name != null) p.name = name;
             p.shape = shape;
         }
     }
 
-    public HashMap<Integer, PlayerData> getPlayers() { return players; }
+    public IntMap<PlayerData> getPlayers() { return players; }
     public PlayerData getLocalPlayer() { return localPlayer; }
     public int getPlayerId() { return profile.id; }
     public boolean isConnected() {
@@ -234,22 +585,26 @@ public class ClientManager {
         public int id;
         public String name;
         public float x, y;
-        public float targetX, targetY;
         public int shape = 1; // default: triangle
+        public final InterpolationBuffer states = new InterpolationBuffer();
+        private final Vector2 sampled = new Vector2();
+        // cell of the newest state in the PlayerGrid, if in it
+        long cell;
+        boolean indexed;
 
         public PlayerData(int id, String name, float x, float y, int shape) {
             this.id = id;
             this.name = name;
-            this.x = this.targetX = x;
-            this.y = this.targetY = y;
+            this.x = x;
+            this.y = y;
             this.shape = shape;
         }
 
-        public void update(float delta) {
-            float lerp = 10f * delta;
-            if (lerp > 1f) lerp = 1f;
-            x += (targetX - x) * lerp;
-            y += (targetY - y) * lerp;
+        public void update(double renderTime, float maxExtrapolation) {
+            sampled.set(x, y);
+            states.sample(renderTime, maxExtrapolation, sampled);
+            x = sampled.x;
+            y = sampled.y;
         }
     }
 }
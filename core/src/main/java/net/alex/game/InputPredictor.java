@@ -0,0 +1,78 @@
+package net.alex.game;
+
+import net.alex.game.network.Network;
+import net.alex.game.network.PlayerInput;
+
+/**
+ * Client-side prediction for the local player.
+ * Held input is sampled into sequence-numbered commands at {@link PlayerInput#RATE} and applied
+ * locally right away. Commands stay pending until a snapshot says the server applied them; then
+ * the predicted position restarts from the server's and the still pending commands are replayed.
+ * Render thread only: snapshots reach it through the {@link RenderHandoff} before reconciling.
+ */
+public class InputPredictor {
+    // Pending commands kept for replay, ~2 seconds at 60 Hz; older ones are given up on
+    private static final int CAPACITY = 128;
+
+    private final byte[] inputs = new byte[CAPACITY]; // by sequence % CAPACITY
+    private int nextSequence = 1;
+    private int acked; // newest sequence the server confirmed
+    private float accumulator;
+    private int lastShape;
+    private float x, y;
+
+    public void reset(float x, float y, int shape) {
+        this.x = x;
+        this.y = y;
+        lastShape = shape;
+        nextSequence = 1;
+        acked = 0;
+        accumulator = 0;
+    }
+
+    /**
+     * Turns {@code delta} seconds of the given input into commands and predicts them.
+     * Idle steps produce no command, so a player standing still sends nothing.
+     */
+    public void sample(float delta, int buttons, int shape) {
+        accumulator += delta;
+        while (accumulator >= PlayerInput.STEP) {
+            accumulator -= PlayerInput.STEP;
+            if (buttons == 0 && shape == lastShape) continue;
+
+            byte input = PlayerInput.pack(buttons, shape);
+            inputs[nextSequence % CAPACITY] = input;
+            nextSequence++;
+            if (nextSequence - acked > CAPACITY) acked = nextSequence - CAPACITY;
+            lastShape = shape;
+            x += PlayerInput.dx(input);
+            y += PlayerInput.dy(input);
+        }
+    }
+
+    /** Fills {@code batch} with the oldest unconfirmed commands; false if there are none. */
+    public boolean fill(Network.InputBatch batch) {
+        int first = acked + 1;
+        int count = Math.min(nextSequence - first, Network.InputBatch.MAX_INPUTS);
+        if (count <= 0) return false;
+        batch.firstSequence = first;
+        batch.count = count;
+        for (int i = 0; i < count; i++) batch.inputs[i] = inputs[(first + i) % CAPACITY];
+        return true;
+    }
+
+    /** The server was at (serverX, serverY) after applying commands up to {@code sequence}. */
+    public void reconcile(int sequence, float serverX, float serverY) {
+        if (sequence < acked || sequence >= nextSequence) return; // stale, or from before a reset
+        acked = sequence;
+        x = serverX;
+        y = serverY;
+        for (int s = acked + 1; s < nextSequence; s++) {
+            x += PlayerInput.dx(inputs[s % CAPACITY]);
+            y += PlayerInput.dy(inputs[s % CAPACITY]);
+        }
+    }
+
+    public float getX() { return x; }
+    public float getY() { return y; }
+}
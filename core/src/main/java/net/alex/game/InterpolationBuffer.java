@@ -0,0 +1,70 @@
+package net.alex.game;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * Recent server states of one remote entity, stamped with server time (tick / tick rate).
+ * The render thread samples it slightly in the past, between two known states, so motion
+ * stays smooth however unevenly snapshots arrive. If the render time runs past the newest
+ * state the last velocity is continued, but only for a bounded time.
+ * Render thread only, states come in through the {@link RenderHandoff}.
+ */
+public class InterpolationBuffer {
+    // ~0.5 seconds of states at 30 Hz, far more than any sensible interpolation delay
+    private static final int CAPACITY = 16;
+
+    private final double[] times = new double[CAPACITY];
+    private final float[] xs = new float[CAPACITY];
+    private final float[] ys = new float[CAPACITY];
+    private int newest = -1;
+    private int count;
+
+    /** Forgets everything and starts over from one known state. */
+    public void reset(double time, float x, float y) {
+        count = 0;
+        add(time, x, y);
+    }
+
+    /** Adds a state; states older than the newest are ignored, an equal time replaces it. */
+    public void add(double time, float x, float y) {
+        if (count > 0 && time <= times[newest]) {
+            if (time < times[newest]) return;
+        } else {
+            newest = (newest + 1) % CAPACITY;
+            if (count < CAPACITY) count++;
+        }
+        times[newest] = time;
+        xs[newest] = x;
+        ys[newest] = y;
+    }
+
+    /** Writes the position at {@code time} into {@code out}, extrapolating at most {@code maxExtrapolation} seconds. */
+    public void sample(double time, float maxExtrapolation, Vector2 out) {
+        if (count == 0) return;
+
+        if (count == 1 || time >= times[newest]) {
+            out.set(xs[newest], ys[newest]);
+            if (count == 1) return;
+            int previous = (newest - 1 + CAPACITY) % CAPACITY;
+            double span = times[newest] - times[previous];
+            float ahead = (float) (Math.min(time - times[newest], maxExtrapolation) / span);
+            out.x += (xs[newest] - xs[previous]) * ahead;
+            out.y += (ys[newest] - ys[previous]) * ahead;
+            return;
+        }
+
+        for (int k = 1; k < count; k++) {
+            int older = (newest - k + CAPACITY) % CAPACITY;
+            if (times[older] <= time) {
+                int newer = (older + 1) % CAPACITY;
+                float alpha = (float) ((time - times[older]) / (times[newer] - times[older]));
+                out.set(xs[older] + (xs[newer] - xs[older]) * alpha, ys[older] + (ys[newer] - ys[older]) * alpha);
+                return;
+            }
+        }
+
+        // older than anything kept, hold the oldest state
+        int oldest = (newest - count + 1 + CAPACITY) % CAPACITY;
+        out.set(xs[oldest], ys[oldest]);
+    }
+}
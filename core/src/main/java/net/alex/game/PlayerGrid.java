@@ -0,0 +1,74 @@
+package net.alex.game;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * Uniform grid over the remote players' newest known positions, so the render thread only
+ * interpolates and draws those near the camera. Players are moved between cells as their
+ * states arrive instead of the grid being rebuilt, so the cost follows the snapshot rate of
+ * changed players, not the frame rate times the player count. Render thread only.
+ */
+public class PlayerGrid {
+    private final float cellSize;
+    private final LongMap<Array<ClientManager.PlayerData>> cells = new LongMap<>();
+
+    public PlayerGrid(float cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /** Adds {@code p} at (x, y), or moves it there if it is already in the grid. */
+    public void update(ClientManager.PlayerData p, float x, float y) {
+        long key = key(cell(x), cell(y));
+        if (p.indexed) {
+            if (p.cell == key) return;
+            remove(p);
+        }
+        Array<ClientManager.PlayerData> cell = cells.get(key);
+        if (cell == null) {
+            cell = new Array<>(false, 16);
+            cells.put(key, cell);
+        }
+        cell.add(p);
+        p.cell = key;
+        p.indexed = true;
+    }
+
+    public void remove(ClientManager.PlayerData p) {
+        if (!p.indexed) return;
+        Array<ClientManager.PlayerData> cell = cells.get(p.cell);
+        if (cell != null) {
+            cell.removeValue(p, true);
+            // empty cells go, so the map only covers where players are
+            if (cell.isEmpty()) cells.remove(p.cell);
+        }
+        p.indexed = false;
+    }
+
+    public void clear() {
+        for (Array<ClientManager.PlayerData> cell : cells.values()) {
+            for (int i = 0; i < cell.size; i++) cell.get(i).indexed = false;
+        }
+        cells.clear();
+    }
+
+    /** Adds every player in a cell overlapping the rectangle to {@code out}, a superset of those inside it. */
+    public void query(float minX, float minY, float maxX, float maxY, Array<ClientManager.PlayerData> out) {
+        int fromX = cell(minX), toX = cell(maxX);
+        int fromY = cell(minY), toY = cell(maxY);
+        for (int cx = fromX; cx <= toX; cx++) {
+            for (int cy = fromY; cy <= toY; cy++) {
+                Array<ClientManager.PlayerData> cell = cells.get(key(cx, cy));
+                if (cell != null) out.addAll(cell);
+            }
+        }
+    }
+
+    private int cell(float v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return (long) cx << 32 | (cy & 0xFFFFFFFFL);
+    }
+}
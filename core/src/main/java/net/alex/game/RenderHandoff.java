@@ -0,0 +1,107 @@
+package net.alex.game;
+
+import net.alex.game.network.SnapshotFrame;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands what the network thread received over to the render thread, without either one
+ * ever waiting for the other. The network thread appends entries to a back buffer; once per
+ * frame the render thread swaps it for the buffer it drained the frame before. Both sides only
+ * ever touch the buffer they hold, and the swap is a single compareAndSet: if the network
+ * thread is appending right then, the render thread just picks the entries up next frame.
+ * Entries, including their frame copies, are reused as the two buffers trade places.
+ */
+public class RenderHandoff {
+    // While the render thread isn't draining (e.g. minimized), keep at most this many frames;
+    // newer ones replace the newest kept one rather than piling up
+    private static final int MAX_FRAMES = 16;
+
+    // Entry kinds, applied in the order they were received
+    public static final int ASSIGN = 1;  // id: our player id
+    public static final int STATE = 2;   // id, x, y, shape: one player of the join state
+    public static final int JOINED = 3;  // id, name, x, y, shape
+    public static final int LEFT = 4;    // id
+    public static final int FRAME = 5;   // frame, time, inputSequence, interval, arrivedNanos
+    public static final int RESET = 6;   // a new join state starts
+
+    public static class Entry {
+        public int kind;
+        public int generation; // see ClientManager: entries from an old connection are skipped
+        public int id;
+        public String name;
+        public float x, y;
+        public int shape;
+        public final SnapshotFrame frame = new SnapshotFrame(-1, 64);
+        public double time; // server time of the frame
+        public int inputSequence;
+        public int interval; // server ticks between this client's snapshots
+        public long arrivedNanos;
+    }
+
+    public static class Buffer {
+        private Entry[] entries = new Entry[64];
+        private int size, frames;
+
+        public int size() { return size; }
+        public Entry get(int i) { return entries[i]; }
+
+        /** Returns the next reusable entry. */
+        public Entry add(int kind, int generation) {
+            if (size == entries.length) entries = Arrays.copyOf(entries, size * 2);
+            Entry e = entries[size];
+            if (e == null) e = entries[size] = new Entry();
+            size++;
+            e.kind = kind;
+            e.generation = generation;
+            return e;
+        }
+
+        /** Like add(FRAME), but overwrites the newest frame once {@link #MAX_FRAMES} are waiting. */
+        public Entry addFrame(int generation) {
+            if (frames >= MAX_FRAMES && entries[size - 1].kind == FRAME) {
+                Entry last = entries[size - 1];
+                last.generation = generation;
+                return last;
+            }
+            frames++;
+            return add(FRAME, generation);
+        }
+
+        private void clear() {
+            for (int i = 0; i < size; i++) entries[i].name = null;
+            size = frames = 0;
+        }
+    }
+
+    private final AtomicReference<Buffer> back = new AtomicReference<>(new Buffer());
+    private Buffer writing; // network thread, between begin() and end()
+    private Buffer front = new Buffer(); // render thread, drained last frame
+
+    // ---- Network thread ----
+    /** Takes the back buffer to append to; call {@link #end()} right after. */
+    public Buffer begin() {
+        writing = back.getAndSet(null);
+        return writing;
+    }
+
+    public void end() {
+        back.set(writing);
+        writing = null;
+    }
+
+    // ---- Render thread ----
+    /**
+     * Swaps in the entries received since the last call, or returns null if there are none or
+     * the network thread is appending right now. Valid until the next call.
+     */
+    public Buffer swap() {
+        Buffer received = back.get();
+        if (received == null || received.size == 0) return null;
+        front.clear();
+        if (!back.compareAndSet(received, front)) return null;
+        front = received;
+        return received;
+    }
+}
@@ -5,9 +5,11 @@ import com.badlogic.gdx.Screen;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.viewport.FitViewport;
+import net.alex.game.network.PlayerInput;
 
-import java.util.HashMap;
 
 public class TestGame implements Screen {
     private final ClientManager client;
@@ -16,8 +18,11 @@ public class TestGame implements Screen {
     private ShapeRenderer shapeRenderer;
 
     // Store all players by ID
-    private HashMap<Integer, ClientManager.PlayerData> players = new HashMap<>();
+    private IntMap<ClientManager.PlayerData> players = new IntMap<>();
     private int localId; // our assigned ID
+    // Players within the camera, the only ones interpolated and drawn
+    private final Array<ClientManager.PlayerData> visible = new Array<>(false, 256, ClientManager.PlayerData.class);
+    private static final float SHAPE_EXTENT = 15; // farthest a shape reaches from its player's position
 
     public TestGame(ClientManager client) {
         this.client = client;
@@ -37,7 +42,8 @@ public class TestGame implements Screen {
         client.update(delta);
         players = client.getPlayers();
 
-        // Camera follows local player
+        // Camera follows local player; new players only get their id once a zone server has them
+        localId = client.getPlayerId();
         ClientManager.PlayerData me = players.get(localId);
         if (me != null) {
             camera.position.set(me.x, me.y, 0);
@@ -52,7 +58,11 @@ public class TestGame implements Screen {
         shapeRenderer.setProjectionMatrix(camera.combined);
         shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
 
-        for (ClientManager.PlayerData p : players.values()) {
+        float halfWidth = camera.viewportWidth * camera.zoom / 2 + SHAPE_EXTENT;
+        float halfHeight = camera.viewportHeight * camera.zoom / 2 + SHAPE_EXTENT;
+        client.playersIn(camera.position.x - halfWidth, camera.position.y - halfHeight,
+                camera.position.x + halfWidth, camera.position.y + halfHeight, visible);
+        for (ClientManager.PlayerData p : visible) {
             switch (p.shape) {
                 case 1: shapeRenderer.triangle(p.x - 10, p.y - 10, p.x + 10, p.y - 10, p.x, p.y + 15); break;
                 case 2: shapeRenderer.circle(p.x, p.y, 12); break;
@@ -64,19 +74,20 @@ public class TestGame implements Screen {
 
         // Handle local input
         if (me != null) {
-            float speed = 200 * delta;
-            if (Gdx.input.isKeyPressed(com.badlogic.gdx.Input.Keys.W)) me.y += speed;
-            if (Gdx.input.isKeyPressed(com.badlogic.gdx.Input.Keys.S)) me.y -= speed;
-            if (Gdx.input.isKeyPressed(com.badlogic.gdx.Input.Keys.A)) me.x -= speed;
-            if (Gdx.input.isKeyPressed(com.badlogic.gdx.Input.Keys.D)) me.x += speed;
+            int buttons = 0;
+            if (Gdx.input.isKeyPressed(com.badlogic.gdx.Input.Keys.W)) buttons |= PlayerInput.UP;
+            if (Gdx.input.isKeyPressed(com.badlogic.gdx.Input.Keys.S)) buttons |= PlayerInput.DOWN;
+            if (Gdx.input.isKeyPressed(com.badlogic.gdx.Input.Keys.A)) buttons |= PlayerInput.LEFT;
+            if (Gdx.input.isKeyPressed(com.badlogic.gdx.Input.Keys.D)) buttons |= PlayerInput.RIGHT;
 
             // Switch shape with 1,2,3
-            if (Gdx.input.isKeyJustPressed(com.badlogic.gdx.Input.Keys.NUM_1)) me.shape = 1;
-            if (Gdx.input.isKeyJustPressed(com.badlogic.gdx.Input.Keys.NUM_2)) me.shape = 2;
-            if (Gdx.input.isKeyJustPressed(com.badlogic.gdx.Input.Keys.NUM_3)) me.shape = 3;
+            int shape = me.shape;
+            if (Gdx.input.isKeyJustPressed(com.badlogic.gdx.Input.Keys.NUM_1)) shape = 1;
+            if (Gdx.input.isKeyJustPressed(com.badlogic.gdx.Input.Keys.NUM_2)) shape = 2;
+            if (Gdx.input.isKeyJustPressed(com.badlogic.gdx.Input.Keys.NUM_3)) shape = 3;
 
-            // Send update to server
-            client.sendPlayerUpdate(me);
+            // Predicted locally, sent to the server in batches
+            client.updateInput(delta, buttons, shape);
         }
     }
 
@@ -0,0 +1,146 @@
+package net.alex.game.network;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.FrameworkMessage;
+import com.esotericsoftware.kryonet.KryoSerialization;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * {@link Transport} over KryoNet: reliable is TCP, unreliable is UDP. Server connections and
+ * the client are KryoNet's own objects, subclassed to be {@link Transport.Link}s, so nothing is
+ * looked up or wrapped per packet.
+ */
+public class KryoNetTransport implements Transport {
+    public static final KryoNetTransport INSTANCE = new KryoNetTransport();
+
+    @Override
+    public Transport.Server newServer(int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener) {
+        KryoServer server = new KryoServer(writeBufferSize, objectBufferSize);
+        setup.accept(server.getKryo());
+        server.addListener(new Adapter(listener));
+        return server;
+    }
+
+    @Override
+    public Transport.Client newClient(int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener) {
+        KryoClient client = new KryoClient(writeBufferSize, objectBufferSize);
+        setup.accept(client.getKryo());
+        client.addListener(new Adapter(listener));
+        return client;
+    }
+
+    @Override
+    public Kryo newKryo(Consumer<Kryo> setup) {
+        Kryo kryo = new KryoSerialization().getKryo(); // KryoNet's own messages take the first ids
+        setup.accept(kryo);
+        return kryo;
+    }
+
+    /** KryoNet callbacks to the transport's, without KryoNet's keep-alives and pings. */
+    private static class Adapter extends com.esotericsoftware.kryonet.Listener {
+        private final Listener listener;
+
+        Adapter(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void connected(Connection c) {
+            listener.connected((Link) c);
+        }
+
+        @Override
+        public void disconnected(Connection c) {
+            listener.disconnected((Link) c);
+        }
+
+        @Override
+        public void received(Connection c, Object object) {
+            if (object instanceof FrameworkMessage) return;
+            listener.received((Link) c, object);
+        }
+    }
+
+    // ---- Server ----
+    private static class KryoServer extends com.esotericsoftware.kryonet.Server implements Transport.Server {
+        KryoServer(int writeBufferSize, int objectBufferSize) {
+            super(writeBufferSize, objectBufferSize);
+        }
+
+        @Override
+        protected Connection newConnection() {
+            return new KryoLink();
+        }
+
+        @Override
+        public void bind(int tcpPort, int udpPort) throws IOException {
+            super.bind(tcpPort, udpPort);
+            start();
+        }
+
+        @Override
+        public Link[] links() {
+            Connection[] connections = getConnections();
+            Link[] links = new Link[connections.length];
+            for (int i = 0; i < connections.length; i++) links[i] = (Link) connections[i];
+            return links;
+        }
+
+        @Override
+        public void broadcastReliable(Object packet) {
+            sendToAllTCP(packet);
+        }
+
+        @Override
+        public void broadcastUnreliable(Object packet) {
+            sendToAllUDP(packet);
+        }
+
+        @Override
+        public void free(Object packet) {
+            Network.free(getKryo(), packet);
+        }
+    }
+
+    private static class KryoLink extends Connection implements Link {
+        @Override public int id() { return getID(); }
+        @Override public void sendReliable(Object packet) { sendTCP(packet); }
+        @Override public void sendUnreliable(Object packet) { sendUDP(packet); }
+        @Override public int queuedBytes() { return getTcpWriteBufferSize(); }
+        @Override public int rtt() { return getReturnTripTime(); }
+        @Override public void updateRtt() { updateReturnTripTime(); }
+    }
+
+    // ---- Client ----
+    private static class KryoClient extends com.esotericsoftware.kryonet.Client implements Transport.Client {
+        private boolean started;
+
+        KryoClient(int writeBufferSize, int objectBufferSize) {
+            super(writeBufferSize, objectBufferSize);
+        }
+
+        @Override
+        public void connect(String host, int tcpPort, int udpPort, int timeoutMs) throws IOException {
+            if (!started) {
+                start();
+                started = true;
+            }
+            connect(timeoutMs, host, tcpPort, udpPort);
+        }
+
+        @Override public int id() { return getID(); }
+        @Override public void sendReliable(Object packet) { sendTCP(packet); }
+        @Override public void sendUnreliable(Object packet) { sendUDP(packet); }
+        @Override public int queuedBytes() { return getTcpWriteBufferSize(); }
+        @Override public int rtt() { return getReturnTripTime(); }
+        @Override public void updateRtt() { updateReturnTripTime(); }
+
+        @Override
+        public void free(Object packet) {
+            Network.free(getKryo(), packet);
+        }
+    }
+}
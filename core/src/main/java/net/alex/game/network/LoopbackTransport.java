@@ -0,0 +1,450 @@
+package net.alex.game.network;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * {@link Transport} inside one JVM: clients connect to a server bound in the same process on
+ * the same TCP port, the host is ignored. There are no sockets, selectors or system calls; the
+ * sending thread encodes a packet once and the receiver's update thread decodes it straight
+ * from that array. Packets are still encoded, with the same Kryo setup, so pooled and reused
+ * packets behave as they do over KryoNet.
+ *
+ * <p>By default nothing is lost or reordered, unreliable packets included, and round trips are
+ * 0 ms. Like KryoNet, a link is closed once its reliable backlog exceeds the write buffer.
+ *
+ * <p>To see how the game copes with a bad network, -DloopbackLatency and -DloopbackJitter (ms,
+ * one way) delay packets and -DloopbackLoss drops that fraction of them. Unreliable packets are
+ * simply gone, or overtaken by later ones. Reliable ones behave like TCP: a lost one arrives after
+ * Linux's retransmission timeout instead, doubling each time the retransmission is lost too, and
+ * holds up every reliable packet sent after it.
+ *
+ * <p>-DloopbackBandwidth (KB/s, each way of each link) makes packets wait for the ones before
+ * them to go through. Reliable packets wait as long as it takes, and sit in the write buffer
+ * meanwhile, as they would over a slow TCP connection; unreliable ones are dropped once the queue
+ * holds more than {@link #ROUTER_QUEUE_NANOS} worth. The round trip includes the queue.
+ */
+public class LoopbackTransport implements Transport {
+    public static final LoopbackTransport INSTANCE = new LoopbackTransport(
+            Double.parseDouble(System.getProperty("loopbackLoss", "0")),
+            Long.getLong("loopbackLatency", 0), Long.getLong("loopbackJitter", 0),
+            Long.getLong("loopbackBandwidth", 0));
+
+    // Bound servers by TCP port
+    private static final ConcurrentHashMap<Integer, LoopServer> BOUND = new ConcurrentHashMap<>();
+    // Linux never retransmits a TCP segment sooner
+    private static final long TCP_MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    // A bandwidth-limited link drops datagrams that would wait longer than this
+    private static final long ROUTER_QUEUE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final double loss;
+    private final long latencyNanos, jitterNanos;
+    private final long tcpRtoNanos;
+    private final long bytesPerSecond; // 0 = unlimited
+
+    /** @param loss fraction of packets lost; latency and jitter one way, in milliseconds */
+    public LoopbackTransport(double loss, long latencyMs, long jitterMs) {
+        this(loss, latencyMs, jitterMs, 0);
+    }
+
+    /** As above, with each direction of each link limited to {@code bandwidthKBps} (0 = unlimited). */
+    public LoopbackTransport(double loss, long latencyMs, long jitterMs, long bandwidthKBps) {
+        this.bytesPerSecond = bandwidthKBps * 1024;
+        this.loss = loss;
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMs);
+        this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(jitterMs);
+        // srtt + 4 * rttvar, with about 2 * latency + jitter round trips varying by about jitter
+        this.tcpRtoNanos = Math.max(TCP_MIN_RTO_NANOS, 2 * latencyNanos + 5 * jitterNanos);
+    }
+
+    private boolean perfect() {
+        return loss <= 0 && latencyNanos <= 0 && jitterNanos <= 0 && bytesPerSecond <= 0;
+    }
+
+    @Override
+    public Transport.Server newServer(int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener) {
+        return new LoopServer(this, writeBufferSize, objectBufferSize, setup, listener);
+    }
+
+    @Override
+    public Transport.Client newClient(int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener) {
+        return new LoopClient(this, writeBufferSize, objectBufferSize, setup, listener);
+    }
+
+    @Override
+    public Kryo newKryo(Consumer<Kryo> setup) {
+        return Endpoint.newKryo(setup);
+    }
+
+    // ---- Messages ----
+    private static final int CONNECTED = 0, DISCONNECTED = 1, PACKET = 2, STOP = 3;
+    private static final AtomicLong ORDER = new AtomicLong(); // same delivery time: first come, first served
+
+    private static class Message implements Delayed {
+        final int kind;
+        final LoopLink link; // the receiving end
+        final byte[] bytes;
+        final boolean reliable;
+        final long at; // System.nanoTime() to deliver at, when the network isn't perfect
+        final long order = ORDER.getAndIncrement();
+
+        Message(int kind, LoopLink link, byte[] bytes, boolean reliable) {
+            this(kind, link, bytes, reliable, System.nanoTime());
+        }
+
+        Message(int kind, LoopLink link, byte[] bytes, boolean reliable, long at) {
+            this.kind = kind;
+            this.link = link;
+            this.bytes = bytes;
+            this.reliable = reliable;
+            this.at = at;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(at - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Message m = (Message) other;
+            int c = Long.compare(at - m.at, 0);
+            return c != 0 ? c : Long.compare(order, m.order);
+        }
+    }
+
+    // ---- Endpoint ----
+    /** A server or a client: its update thread and inbox, and an encoder per sending thread. */
+    private abstract static class Endpoint implements Runnable {
+        final LoopbackTransport network;
+        final int writeBufferSize;
+        final Listener listener;
+        private final Kryo kryo; // decodes, update thread only
+        private final Input input = new Input();
+        private final ThreadLocal<Output> outputs;
+        private final ThreadLocal<Kryo> encoders;
+        final BlockingQueue<Message> inbox;
+        private Thread thread;
+
+        Endpoint(LoopbackTransport network, int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener) {
+            this.network = network;
+            this.inbox = network.perfect() ? new LinkedBlockingQueue<>() : new DelayQueue<>();
+            this.writeBufferSize = writeBufferSize;
+            this.listener = listener;
+            this.kryo = newKryo(setup);
+            // fixed size: a packet bigger than the object buffer fails here as it would over KryoNet
+            this.outputs = ThreadLocal.withInitial(() -> new Output(objectBufferSize));
+            this.encoders = ThreadLocal.withInitial(() -> newKryo(setup));
+        }
+
+        static Kryo newKryo(Consumer<Kryo> setup) {
+            Kryo kryo = new Kryo();
+            kryo.setReferences(false); // as KryoNet
+            setup.accept(kryo);
+            return kryo;
+        }
+
+        byte[] encode(Object packet) {
+            Output output = outputs.get();
+            output.reset();
+            encoders.get().writeClassAndObject(output, packet);
+            return output.toBytes();
+        }
+
+        void startThread(String name) {
+            if (thread != null) return;
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stopThread() {
+            if (thread != null) inbox.add(new Message(STOP, null, null, false));
+        }
+
+        /** What the listener is given for {@code link}. */
+        Link visible(LoopLink link) {
+            return link;
+        }
+
+        void disconnected(LoopLink link) {
+        }
+
+        void free(Object packet) {
+            Network.free(kryo, packet);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Message m = inbox.take();
+                    if (m.kind == STOP) return;
+                    try {
+                        dispatch(m);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        m.link.close();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void dispatch(Message m) {
+            switch (m.kind) {
+                case CONNECTED:
+                    listener.connected(visible(m.link));
+                    break;
+                case DISCONNECTED:
+                    disconnected(m.link);
+                    listener.disconnected(visible(m.link));
+                    break;
+                case PACKET:
+                    if (m.reliable) m.link.peer.queued.addAndGet(-m.bytes.length);
+                    input.setBuffer(m.bytes);
+                    listener.received(visible(m.link), kryo.readClassAndObject(input));
+                    break;
+            }
+        }
+    }
+
+    // ---- Link ----
+    /** One end of a connection; both ends share {@link #open}. */
+    private static class LoopLink implements Link {
+        final Endpoint endpoint;
+        final int id;
+        LoopLink peer;
+        AtomicBoolean open;
+        final AtomicInteger queued = new AtomicInteger(); // sent reliably, not dispatched by the peer yet
+        private long reliableAt; // when the newest reliable packet arrives; later ones can't overtake it
+        private volatile long freeAt; // when the bandwidth-limited link is done with what was sent so far
+
+        LoopLink(Endpoint endpoint, int id) {
+            this.endpoint = endpoint;
+            this.id = id;
+        }
+
+        static LoopLink pair(LoopLink a, LoopLink b) {
+            a.peer = b;
+            b.peer = a;
+            a.open = b.open = new AtomicBoolean(true);
+            return a;
+        }
+
+        private void send(Object packet, boolean reliable) {
+            if (!open.get()) return;
+            byte[] bytes = endpoint.encode(packet);
+            if (reliable && queued.addAndGet(bytes.length) > endpoint.writeBufferSize) {
+                System.out.println("⚠️ Loopback link " + id + " write buffer full, closing");
+                close();
+                return;
+            }
+            LoopbackTransport network = endpoint.network;
+            if (network.perfect()) {
+                peer.endpoint.inbox.add(new Message(PACKET, peer, bytes, reliable));
+                return;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (!reliable && random.nextDouble() < network.loss) return;
+            long at = System.nanoTime();
+            if (network.bytesPerSecond > 0) {
+                synchronized (this) {
+                    long start = Math.max(at, freeAt);
+                    if (!reliable && start - at > ROUTER_QUEUE_NANOS) return;
+                    at = freeAt = start + bytes.length * 1_000_000_000L / network.bytesPerSecond;
+                }
+            }
+            at += network.latencyNanos + (network.jitterNanos > 0 ? random.nextLong(network.jitterNanos + 1) : 0);
+            if (reliable) {
+                // TCP sends a lost segment again after its retransmission timeout, twice that if
+                // the retransmission is lost too, and so on
+                for (long rto = network.tcpRtoNanos; random.nextDouble() < network.loss; rto *= 2) at += rto;
+                synchronized (this) {
+                    at = reliableAt = Math.max(at, reliableAt);
+                }
+            }
+            peer.endpoint.inbox.add(new Message(PACKET, peer, bytes, reliable, at));
+        }
+
+        @Override public int id() { return id; }
+        @Override public void sendReliable(Object packet) { send(packet, true); }
+        @Override public void sendUnreliable(Object packet) { send(packet, false); }
+        @Override public boolean isConnected() { return open.get(); }
+        @Override public int queuedBytes() { return queued.get(); }
+        @Override public int rtt() {
+            long queue = Math.max(0, freeAt - System.nanoTime());
+            return (int) TimeUnit.NANOSECONDS.toMillis(2 * endpoint.network.latencyNanos + queue);
+        }
+        @Override public void updateRtt() {}
+
+        @Override
+        public void close() {
+            if (!open.compareAndSet(true, false)) return;
+            long now = System.nanoTime();
+            endpoint.inbox.add(new Message(DISCONNECTED, this, null, false, now));
+            // the peer hears of it after the packets already on their way
+            long at;
+            synchronized (this) {
+                at = Math.max(now + endpoint.network.latencyNanos, reliableAt);
+            }
+            peer.endpoint.inbox.add(new Message(DISCONNECTED, peer, null, false, at));
+        }
+    }
+
+    // ---- Server ----
+    private static class LoopServer extends Endpoint implements Transport.Server {
+        private final CopyOnWriteArrayList<LoopLink> links = new CopyOnWriteArrayList<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private int port = -1;
+
+        LoopServer(LoopbackTransport network, int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener) {
+            super(network, writeBufferSize, objectBufferSize, setup, listener);
+        }
+
+        @Override
+        public void bind(int tcpPort, int udpPort) throws IOException {
+            if (BOUND.putIfAbsent(tcpPort, this) != null) throw new IOException("Loopback port " + tcpPort + " already bound");
+            port = tcpPort;
+            startThread("LoopbackServer");
+        }
+
+        /** Client thread: opens a connection and returns the client's end. */
+        LoopLink accept(LoopClient client) {
+            int id = nextId.incrementAndGet();
+            LoopLink own = new LoopLink(this, id);
+            LoopLink theirs = LoopLink.pair(new LoopLink(client, id), own);
+            links.add(own);
+            long now = System.nanoTime();
+            inbox.add(new Message(CONNECTED, own, null, false, now));
+            client.inbox.add(new Message(CONNECTED, theirs, null, false, now));
+            return theirs;
+        }
+
+        @Override
+        void disconnected(LoopLink link) {
+            links.remove(link);
+        }
+
+        @Override
+        public Link[] links() {
+            return links.toArray(new Link[0]);
+        }
+
+        @Override
+        public void broadcastReliable(Object packet) {
+            for (LoopLink link : links) link.sendReliable(packet);
+        }
+
+        @Override
+        public void broadcastUnreliable(Object packet) {
+            for (LoopLink link : links) link.sendUnreliable(packet);
+        }
+
+        @Override
+        public void free(Object packet) {
+            super.free(packet);
+        }
+
+        @Override
+        public void stop() {
+            BOUND.remove(port, this);
+            for (LoopLink link : links) link.close();
+            stopThread();
+        }
+    }
+
+    // ---- Client ----
+    private static class LoopClient extends Endpoint implements Transport.Client {
+        private volatile LoopLink link;
+
+        LoopClient(LoopbackTransport network, int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener) {
+            super(network, writeBufferSize, objectBufferSize, setup, listener);
+        }
+
+        @Override
+        public void connect(String host, int tcpPort, int udpPort, int timeoutMs) throws IOException {
+            LoopServer server = BOUND.get(tcpPort);
+            if (server == null) throw new IOException("No loopback server on port " + tcpPort);
+            close();
+            startThread("LoopbackClient");
+            link = server.accept(this);
+        }
+
+        @Override
+        Link visible(LoopLink link) {
+            return this; // like KryoNet, the client is its own connection
+        }
+
+        @Override
+        public int id() {
+            LoopLink l = link;
+            return l == null ? -1 : l.id;
+        }
+
+        @Override
+        public void sendReliable(Object packet) {
+            LoopLink l = link;
+            if (l != null) l.sendReliable(packet);
+        }
+
+        @Override
+        public void sendUnreliable(Object packet) {
+            LoopLink l = link;
+            if (l != null) l.sendUnreliable(packet);
+        }
+
+        @Override
+        public boolean isConnected() {
+            LoopLink l = link;
+            return l != null && l.isConnected();
+        }
+
+        @Override
+        public int queuedBytes() {
+            LoopLink l = link;
+            return l == null ? 0 : l.queuedBytes();
+        }
+
+        @Override
+        public int rtt() {
+            LoopLink l = link;
+            return l == null ? 0 : l.rtt();
+        }
+
+        @Override public void updateRtt() {}
+
+        @Override
+        public void close() {
+            LoopLink l = link;
+            if (l != null) l.close();
+        }
+
+        @Override
+        public void free(Object packet) {
+            super.free(packet);
+        }
+
+        @Override
+        public void stop() {
+            close();
+            stopThread();
+        }
+    }
+}
@@ -1,58 +1,329 @@
 package net.alex.game.network;
 
+import com.badlogic.gdx.utils.Pool;
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryonet.EndPoint;
 
+import java.util.Arrays;
+
 public class Network {
     public static final int tcpPort = 54555;
     public static final int udpPort = 54777;
+    // Positions go over the wire in 1/2^n units; client and server must agree
+    public static final int positionFractionBits = Integer.getInteger("positionFractionBits", 4);
 
     // === Packets ===
     public static class RegisterPlayer {
+        public static final int MAX_NAME_LENGTH = 32; // longer names are cut by the server
+
         public int id;   // 0 if new player
         public String name;
+        public int compression; // Compressed codecs the client can read, one bit per codec
     }
 
     public static class AssignId {
         public int id;   // permanent player ID
+        public int tickRate; // server ticks per second, snapshot ticks are its clock
+        public int compression; // codec bulk packets to this client are compressed with, Compressed.NONE if off
     }
 
     public static class PlayerJoined {
+        // also sent when a player enters someone's area of interest
         public int id;
         public String name;
+        public float x, y;
+        public int shape = 1;
     }
 
     public static class PlayerLeft {
+        // also sent when a player leaves someone's area of interest
         public int id;
     }
 
+    public static class EventBatch implements Pool.Poolable {
+        // server -> client over TCP, once per tick: everyone who left or entered the area of
+        // interest that tick. A busy tick is split into several batches of at most MAX_EVENTS,
+        // which keeps each well below the object buffer even with long names.
+        public static final int MAX_EVENTS = 16;
+
+        public int tick;
+        // only the first leftCount / joinedCount entries are valid, the arrays are reused
+        public int leftCount;
+        public int[] left = new int[0]; // ascending
+        public int joinedCount;
+        public PlayerJoined[] joined = new PlayerJoined[0];
+
+        public void addLeft(int id) {
+            if (leftCount == left.length) {
+                left = Arrays.copyOf(left, Math.max(MAX_EVENTS, leftCount * 2));
+            }
+            left[leftCount++] = id;
+        }
+
+        /** Returns the next reusable join slot. */
+        public PlayerJoined addJoined() {
+            if (joinedCount == joined.length) {
+                joined = Arrays.copyOf(joined, Math.max(MAX_EVENTS, joinedCount * 2));
+            }
+            PlayerJoined j = joined[joinedCount];
+            if (j == null) j = joined[joinedCount] = new PlayerJoined();
+            joinedCount++;
+            return j;
+        }
+
+        public boolean isFull() {
+            return leftCount + joinedCount >= MAX_EVENTS;
+        }
+
+        @Override
+        public void reset() {
+            tick = leftCount = joinedCount = 0;
+        }
+    }
+
     // Old simple pos update
     public static class PlayerPosition {
         public int id;
         public float x, y;
     }
 
-    public static class PlayerUpdate {
+    public static class PlayerUpdate implements Pool.Poolable {
         public int id;
         public float x, y;
         public int shape;  // 1=triangle, 2=circle, 3=box
+
+        @Override
+        public void reset() {
+            id = 0;
+            x = y = 0;
+            shape = 0;
+        }
+    }
+
+    public static class InputBatch implements Pool.Poolable {
+        // client -> server at a fixed send rate: the commands from firstSequence on that the
+        // server has not confirmed yet, so a lost datagram is covered by the next one
+        public static final int MAX_INPUTS = 32;
+
+        public int firstSequence;
+        public int count;
+        public final byte[] inputs = new byte[MAX_INPUTS]; // see PlayerInput
+
+        @Override
+        public void reset() {
+            firstSequence = count = 0;
+        }
     }
 
     public static class WorldState {
-        // send complete player states when a client joins
+        // players around a joining client, streamed over TCP in chunks of bounded size
+        public int part, partCount = 1;
         public PlayerUpdate[] players;
     }
 
+    public static class Compressed {
+        // wraps a bulk reliable packet (join state, events) on its way out; the receiver is given
+        // the packet itself, see PacketSerializers.CompressedSerializer
+        public static final int NONE = 0, DEFLATE = 1;
+        public static final int SUPPORTED = 1 << DEFLATE; // what this build reads, for RegisterPlayer
+
+        public Object packet;
+        // sender side only: the agreed codec, and the encoded size below which packets go as they are
+        public int codec;
+        public int minBytes;
+
+        /** The packet inside {@code packet} if it is wrapped, else {@code packet}. */
+        public static Object unwrap(Object packet) {
+            return packet instanceof Compressed ? ((Compressed) packet).packet : packet;
+        }
+    }
+
+    public static class Reliable {
+        // one message of an ordered channel over UDP, or just acks; see ReliableUdpTransport
+        public static final int SESSION = 0, WORLD = 1, CHANNELS = 2;
+
+        public int channel;
+        public int sequence = -1; // -1 = acks only
+        public int ackNext;       // the sender got every message of the channel before this one
+        public int ackBits;       // bit i: and message ackNext + 1 + i
+        public byte[] bytes;      // sending: the encoded message, kept for resends
+        public int length;
+        public Object packet;     // received: the message decoded
+
+        /**
+         * Join state and events share the WORLD channel, since a later event may undo an earlier
+         * chunk; everything else (ids, redirects) is ordered on SESSION, independently of them.
+         */
+        public static int channelOf(Object packet) {
+            Object p = Compressed.unwrap(packet);
+            return p instanceof WorldState || p instanceof EventBatch || p instanceof PlayerJoined
+                    || p instanceof PlayerLeft ? WORLD : SESSION;
+        }
+    }
+
+    public static class WorldSnapshot implements Pool.Poolable {
+        // per-client delta against the last snapshot the client acknowledged, sent once per server tick
+        public int tick;
+        public int baselineTick = -1; // -1 = no baseline, changed holds the full state
+        public int inputSequence; // last input command of this client the state includes
+        public int part, partCount = 1; // large snapshots are split, apply only once all parts arrived
+        public int interval = 1; // ticks since the previous snapshot to this client, more while its link is congested
+        // only the first changedCount / removedCount entries are valid, the arrays are reused
+        public int changedCount;
+        public EntityDelta[] changed = new EntityDelta[0];
+        public int removedCount;
+        public int[] removed = new int[0];
+
+        /** Returns the next reusable delta slot. */
+        public EntityDelta addChanged() {
+            if (changedCount == changed.length) {
+                changed = Arrays.copyOf(changed, Math.max(16, changedCount * 2));
+            }
+            EntityDelta d = changed[changedCount];
+            if (d == null) d = changed[changedCount] = new EntityDelta();
+            changedCount++;
+            return d;
+        }
+
+        public void addRemoved(int id) {
+            if (removedCount == removed.length) {
+                removed = Arrays.copyOf(removed, Math.max(16, removedCount * 2));
+            }
+            removed[removedCount++] = id;
+        }
+
+        @Override
+        public void reset() {
+            tick = part = inputSequence = 0;
+            baselineTick = -1;
+            partCount = interval = 1;
+            changedCount = removedCount = 0;
+        }
+    }
+
+    public static class EntityDelta {
+        public static final int X = 1, Y = 2, SHAPE = 4, ALL = X | Y | SHAPE;
+
+        public int id;
+        public int fields; // which of the fields below are sent
+        public float x, y;
+        public int shape;
+    }
+
+    public static class SnapshotAck {
+        public int tick; // newest complete snapshot the client has applied
+    }
+
+    // === Zones ===
+    // With the world split into zones, clients first talk to a coordinator (on tcpPort/udpPort),
+    // which sends them on to the zone server owning their player. Zone servers hand players
+    // to each other through the coordinator when they cross a border.
+
+    public static class ZoneRedirect {
+        // coordinator or zone -> client: connect to this zone server instead and register again
+        public String host;
+        public int tcpPort, udpPort;
+        public int playerId; // set for a new player: the id to register with
+    }
+
+    public static class ZoneHello {
+        // zone -> coordinator on connect: the players it owns, in chunks
+        public int zone;
+        public int[] playerIds;
+        public boolean last;
+    }
+
+    public static class PlayerTransfer {
+        // zone -> coordinator -> zone: take over this player; fromZone -1 = new player
+        public int id;
+        public String name;
+        public float x, y;
+        public int shape;
+        public int fromZone, toZone;
+    }
+
+    public static class TransferDone {
+        // new owner -> coordinator -> old owner: the transfer is stored, send the client over
+        public int id;
+        public int fromZone, toZone;
+    }
+
+    // Classes sent as packets on their own, see count()
+    private static final Class<?>[] PACKETS = {
+            RegisterPlayer.class, AssignId.class, PlayerJoined.class, PlayerLeft.class, PlayerPosition.class,
+            PlayerUpdate.class, InputBatch.class, WorldState.class, WorldSnapshot.class, SnapshotAck.class,
+            EventBatch.class, Compressed.class, ZoneRedirect.class, ZoneHello.class, PlayerTransfer.class, TransferDone.class
+    };
+
     public static void register(EndPoint endPoint) {
-        Kryo kryo = endPoint.getKryo();
+        register(endPoint, positionFractionBits);
+    }
+
+    /** Registers the packets with the default precision, e.g. as a {@link Transport} setup. */
+    public static void register(Kryo kryo) {
+        register(kryo, positionFractionBits);
+    }
+
+    /**
+     * Hands a received PlayerUpdate, InputBatch, WorldSnapshot or EventBatch back to the pool it was read from.
+     * Call on the endpoint's update thread once nothing references the packet anymore.
+     */
+    public static void free(EndPoint endPoint, Object packet) {
+        free(endPoint.getKryo(), packet);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static void free(Kryo kryo, Object packet) {
+        Serializer<?> serializer = kryo.getSerializer(packet.getClass());
+        if (serializer instanceof PacketSerializers.CountingSerializer) {
+            serializer = ((PacketSerializers.CountingSerializer<?>) serializer).delegate;
+        }
+        if (serializer instanceof PacketSerializers.PooledSerializer) {
+            ((PacketSerializers.PooledSerializer) serializer).free((Pool.Poolable) packet);
+        }
+    }
+
+    public static void register(EndPoint endPoint, int fractionBits) {
+        register(endPoint.getKryo(), fractionBits);
+    }
+
+    /** Registers the packets on a standalone Kryo, e.g. to measure or record encoded packets. */
+    public static void register(Kryo kryo, int fractionBits) {
+        PacketSerializers.Quantizer quantizer = new PacketSerializers.Quantizer(fractionBits);
         kryo.register(RegisterPlayer.class);
         kryo.register(AssignId.class);
         kryo.register(PlayerJoined.class);
         kryo.register(PlayerLeft.class);
         kryo.register(PlayerPosition.class);
-        kryo.register(PlayerUpdate.class);
+        kryo.register(PlayerUpdate.class, new PacketSerializers.PlayerUpdateSerializer(quantizer));
+        kryo.register(InputBatch.class, new PacketSerializers.InputBatchSerializer());
         kryo.register(WorldState.class);
+        kryo.register(WorldSnapshot.class, new PacketSerializers.WorldSnapshotSerializer(quantizer));
+        kryo.register(EntityDelta.class, new PacketSerializers.EntityDeltaSerializer(quantizer));
+        kryo.register(SnapshotAck.class, new PacketSerializers.SnapshotAckSerializer());
+        kryo.register(EventBatch.class, new PacketSerializers.EventBatchSerializer(quantizer));
+        kryo.register(ZoneRedirect.class);
+        kryo.register(ZoneHello.class);
+        kryo.register(PlayerTransfer.class);
+        kryo.register(TransferDone.class);
         kryo.register(PlayerPosition[].class);
         kryo.register(PlayerUpdate[].class);
+        kryo.register(EntityDelta[].class);
+        kryo.register(int[].class);
+        kryo.register(Compressed.class, new PacketSerializers.CompressedSerializer()); // new ones last, ids above stay put
+        kryo.register(Reliable.class, new PacketSerializers.ReliableSerializer());
+    }
+
+    /** Call after register(): reports the encoded size of every packet sent or received to {@code traffic}. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static void count(Kryo kryo, PacketSerializers.Traffic traffic) {
+        for (Class<?> type : PACKETS) {
+            Registration registration = kryo.getRegistration(type);
+            registration.setSerializer(new PacketSerializers.CountingSerializer(registration.getSerializer(), traffic));
+        }
+        // the wrapper isn't a packet of its own, what it carries is
+        ((PacketSerializers.ReliableSerializer) kryo.getRegistration(Reliable.class).getSerializer()).traffic = traffic;
     }
 }
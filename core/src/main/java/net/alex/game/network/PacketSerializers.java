@@ -0,0 +1,494 @@
+package net.alex.game.network;
+
+import com.badlogic.gdx.utils.Pool;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact Kryo serializers for the per-tick packets.
+ * Ids are varints, positions are fixed-point with {@code fractionBits} bits after the
+ * point (4 = 1/16 unit) written as zig-zag varints, and the shape (1..3) is packed into
+ * two spare bits instead of a full int. Values that don't fit the format (a position past
+ * {@link Quantizer#limit}, an id above {@link #MAX_ID}) fail the write instead of arriving wrong.
+ *
+ * <p>Packets that arrive every tick are read into pooled (or reused) instances instead of
+ * new ones; see {@link Network#free}. Reads and frees both happen on the endpoint's
+ * update thread, so the pools need no locking.
+ */
+public class PacketSerializers {
+    private static final int SHAPE_BITS = 2;
+    private static final int SHAPE_MASK = (1 << SHAPE_BITS) - 1;
+    /** Highest id that still fits next to the shape bits of a PlayerUpdate or join. */
+    public static final int MAX_ID = (1 << 32 - SHAPE_BITS) - 1; // the varint is unsigned, all 32 bits carry
+
+    /** Rounds world coordinates to the fixed-point grid and back. */
+    public static class Quantizer {
+        private static final float INT_RANGE = 0x1p31f; // fixed-point values are ints, -2^31 <= v < 2^31
+
+        public final int fractionBits;
+        /** Positions must lie in {@code [-limit, limit)}, e.g. 32768 at 16 fraction bits. */
+        public final float limit;
+        private final float scale;
+        private final float inverse;
+
+        public Quantizer(int fractionBits) {
+            if (fractionBits < 0 || fractionBits > 16) throw new IllegalArgumentException("fractionBits: " + fractionBits);
+            this.fractionBits = fractionBits;
+            this.scale = 1 << fractionBits;
+            this.inverse = 1f / scale;
+            this.limit = INT_RANGE * inverse;
+        }
+
+        /** Throws a {@link KryoException} for NaN or a value outside the range, which Math.round would saturate. */
+        public int quantize(float value) {
+            float scaled = value * scale;
+            if (!(scaled >= -INT_RANGE && scaled < INT_RANGE)) {
+                throw new KryoException("Position " + value + " out of range for " + fractionBits
+                        + " fraction bits, must be in [-" + limit + ", " + limit + ")");
+            }
+            return Math.round(scaled);
+        }
+
+        public float dequantize(int value) {
+            return value * inverse;
+        }
+
+        public void write(Output output, float value) {
+            output.writeVarInt(quantize(value), false);
+        }
+
+        public float read(Input input) {
+            return dequantize(input.readVarInt(false));
+        }
+    }
+
+    /** {@code [varint (id << 2 | shape)]}, with {@code id} checked against {@link #MAX_ID}. */
+    static void writeIdAndShape(Output output, int id, int shape) {
+        if (id < 0 || id > MAX_ID) throw new KryoException("Id out of range: " + id);
+        output.writeVarInt(id << SHAPE_BITS | (shape & SHAPE_MASK), true);
+    }
+
+    /** Gets told the size of every top-level packet a {@link CountingSerializer} writes or reads. */
+    public interface Traffic {
+        void written(Class<?> type, int bytes);
+
+        void read(Class<?> type, int bytes);
+    }
+
+    /**
+     * Wraps another serializer and reports packet sizes to a {@link Traffic}. Only packets sent
+     * on their own count, not the same class nested in another packet (e.g. a WorldState's players).
+     * A packet received inside a {@link Network.Reliable} is counted by {@link ReliableSerializer},
+     * as it was sent on its own.
+     */
+    public static class CountingSerializer<T> extends Serializer<T> {
+        final Serializer<T> delegate;
+        private final Traffic traffic;
+
+        public CountingSerializer(Serializer<T> delegate, Traffic traffic) {
+            super(delegate.getAcceptsNull(), delegate.isImmutable());
+            this.delegate = delegate;
+            this.traffic = traffic;
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, T object) {
+            long start = output.total();
+            delegate.write(kryo, output, object);
+            if (kryo.getDepth() == 1) traffic.written(object.getClass(), (int) (output.total() - start));
+        }
+
+        @Override
+        public T read(Kryo kryo, Input input, Class<? extends T> type) {
+            long start = input.total();
+            T object = delegate.read(kryo, input, type);
+            if (kryo.getDepth() == 1) traffic.read(type, (int) (input.total() - start));
+            return object;
+        }
+    }
+
+    /** Serializer that reads into instances from its own pool. */
+    public abstract static class PooledSerializer<T extends Pool.Poolable> extends Serializer<T> {
+        private final Pool<T> pool = new Pool<T>() {
+            @Override
+            protected T newObject() {
+                return create();
+            }
+        };
+
+        protected abstract T create();
+
+        protected T obtain() {
+            return pool.obtain();
+        }
+
+        public void free(T object) {
+            pool.free(object);
+        }
+    }
+
+    /** {@code [varint (id << 2 | shape)][x][y]} */
+    public static class PlayerUpdateSerializer extends PooledSerializer<Network.PlayerUpdate> {
+        private final Quantizer quantizer;
+
+        public PlayerUpdateSerializer(Quantizer quantizer) {
+            this.quantizer = quantizer;
+        }
+
+        @Override
+        protected Network.PlayerUpdate create() {
+            return new Network.PlayerUpdate();
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, Network.PlayerUpdate u) {
+            writeIdAndShape(output, u.id, u.shape);
+            quantizer.write(output, u.x);
+            quantizer.write(output, u.y);
+        }
+
+        @Override
+        public Network.PlayerUpdate read(Kryo kryo, Input input, Class<? extends Network.PlayerUpdate> type) {
+            Network.PlayerUpdate u = obtain();
+            int idAndShape = input.readVarInt(true);
+            u.id = idAndShape >>> SHAPE_BITS;
+            u.shape = idAndShape & SHAPE_MASK;
+            u.x = quantizer.read(input);
+            u.y = quantizer.read(input);
+            return u;
+        }
+    }
+
+    /** {@code [varint firstSequence][varint count][byte input...]} */
+    public static class InputBatchSerializer extends PooledSerializer<Network.InputBatch> {
+        @Override
+        protected Network.InputBatch create() {
+            return new Network.InputBatch();
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, Network.InputBatch b) {
+            output.writeVarInt(b.firstSequence, true);
+            output.writeVarInt(b.count, true);
+            output.writeBytes(b.inputs, 0, b.count);
+        }
+
+        @Override
+        public Network.InputBatch read(Kryo kryo, Input input, Class<? extends Network.InputBatch> type) {
+            int first = input.readVarInt(true);
+            int count = input.readVarInt(true);
+            if (count > Network.InputBatch.MAX_INPUTS) throw new KryoException("Too many inputs: " + count);
+            Network.InputBatch b = obtain();
+            b.firstSequence = first;
+            b.count = count;
+            input.readBytes(b.inputs, 0, count);
+            return b;
+        }
+    }
+
+    /** {@code [varint id][byte fields | shape << 3][x?][y?]}, only the flagged fields are written. */
+    public static class EntityDeltaSerializer extends Serializer<Network.EntityDelta> {
+        private static final int FIELD_BITS = 3;
+
+        private final Quantizer quantizer;
+
+        public EntityDeltaSerializer(Quantizer quantizer) {
+            this.quantizer = quantizer;
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, Network.EntityDelta d) {
+            write(output, d);
+        }
+
+        @Override
+        public Network.EntityDelta read(Kryo kryo, Input input, Class<? extends Network.EntityDelta> type) {
+            Network.EntityDelta d = new Network.EntityDelta();
+            read(input, d);
+            return d;
+        }
+
+        void write(Output output, Network.EntityDelta d) {
+            output.writeVarInt(d.id, true);
+            int shape = (d.fields & Network.EntityDelta.SHAPE) != 0 ? d.shape & SHAPE_MASK : 0;
+            output.writeByte(d.fields | shape << FIELD_BITS);
+            if ((d.fields & Network.EntityDelta.X) != 0) quantizer.write(output, d.x);
+            if ((d.fields & Network.EntityDelta.Y) != 0) quantizer.write(output, d.y);
+        }
+
+        void read(Input input, Network.EntityDelta d) {
+            d.id = input.readVarInt(true);
+            int header = input.readByte();
+            d.fields = header & Network.EntityDelta.ALL;
+            d.shape = header >>> FIELD_BITS & SHAPE_MASK;
+            if ((d.fields & Network.EntityDelta.X) != 0) d.x = quantizer.read(input);
+            if ((d.fields & Network.EntityDelta.Y) != 0) d.y = quantizer.read(input);
+        }
+    }
+
+    /**
+     * {@code [tick][baselineTick + 1][inputSequence][part][partCount][changedCount][deltas...][removedCount][id gaps...]},
+     * all varints. Removed ids are ascending, so only the gaps between them are written.
+     */
+    public static class WorldSnapshotSerializer extends PooledSerializer<Network.WorldSnapshot> {
+        private final EntityDeltaSerializer deltas;
+
+        public WorldSnapshotSerializer(Quantizer quantizer) {
+            this.deltas = new EntityDeltaSerializer(quantizer);
+        }
+
+        @Override
+        protected Network.WorldSnapshot create() {
+            return new Network.WorldSnapshot();
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, Network.WorldSnapshot s) {
+            output.writeVarInt(s.tick, true);
+            output.writeVarInt(s.baselineTick + 1, true);
+            output.writeVarInt(s.inputSequence, true);
+            output.writeVarInt(s.part, true);
+            output.writeVarInt(s.partCount, true);
+            output.writeVarInt(s.interval, true);
+            output.writeVarInt(s.changedCount, true);
+            for (int i = 0; i < s.changedCount; i++) deltas.write(output, s.changed[i]);
+            output.writeVarInt(s.removedCount, true);
+            int previous = 0;
+            for (int i = 0; i < s.removedCount; i++) {
+                output.writeVarInt(s.removed[i] - previous, true);
+                previous = s.removed[i];
+            }
+        }
+
+        @Override
+        public Network.WorldSnapshot read(Kryo kryo, Input input, Class<? extends Network.WorldSnapshot> type) {
+            Network.WorldSnapshot s = obtain();
+            s.tick = input.readVarInt(true);
+            s.baselineTick = input.readVarInt(true) - 1;
+            s.inputSequence = input.readVarInt(true);
+            s.part = input.readVarInt(true);
+            s.partCount = input.readVarInt(true);
+            s.interval = input.readVarInt(true);
+            int changed = input.readVarInt(true);
+            for (int i = 0; i < changed; i++) deltas.read(input, s.addChanged());
+            int removed = input.readVarInt(true);
+            int previous = 0;
+            for (int i = 0; i < removed; i++) {
+                previous += input.readVarInt(true);
+                s.addRemoved(previous);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * {@code [tick][leftCount][id gaps...][joinedCount][joined...]}, a join being
+     * {@code [varint (id << 2 | shape)][name][x][y]}. Left ids are ascending, so only the gaps are written.
+     */
+    public static class EventBatchSerializer extends PooledSerializer<Network.EventBatch> {
+        private final Quantizer quantizer;
+
+        public EventBatchSerializer(Quantizer quantizer) {
+            this.quantizer = quantizer;
+        }
+
+        @Override
+        protected Network.EventBatch create() {
+            return new Network.EventBatch();
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, Network.EventBatch b) {
+            output.writeVarInt(b.tick, true);
+            output.writeVarInt(b.leftCount, true);
+            int previous = 0;
+            for (int i = 0; i < b.leftCount; i++) {
+                output.writeVarInt(b.left[i] - previous, true);
+                previous = b.left[i];
+            }
+            output.writeVarInt(b.joinedCount, true);
+            for (int i = 0; i < b.joinedCount; i++) {
+                Network.PlayerJoined j = b.joined[i];
+                writeIdAndShape(output, j.id, j.shape);
+                output.writeString(j.name);
+                quantizer.write(output, j.x);
+                quantizer.write(output, j.y);
+            }
+        }
+
+        @Override
+        public Network.EventBatch read(Kryo kryo, Input input, Class<? extends Network.EventBatch> type) {
+            Network.EventBatch b = obtain();
+            b.tick = input.readVarInt(true);
+            int left = input.readVarInt(true);
+            int previous = 0;
+            for (int i = 0; i < left; i++) {
+                previous += input.readVarInt(true);
+                b.addLeft(previous);
+            }
+            int joined = input.readVarInt(true);
+            for (int i = 0; i < joined; i++) {
+                Network.PlayerJoined j = b.addJoined();
+                int idAndShape = input.readVarInt(true);
+                j.id = idAndShape >>> SHAPE_BITS;
+                j.shape = idAndShape & SHAPE_MASK;
+                j.name = input.readString();
+                j.x = quantizer.read(input);
+                j.y = quantizer.read(input);
+            }
+            return b;
+        }
+    }
+
+    /** Acks are consumed right away by the receiving thread, so one instance is enough. */
+    public static class SnapshotAckSerializer extends Serializer<Network.SnapshotAck> {
+        private final Network.SnapshotAck reused = new Network.SnapshotAck();
+
+        @Override
+        public void write(Kryo kryo, Output output, Network.SnapshotAck ack) {
+            output.writeVarInt(ack.tick, true);
+        }
+
+        @Override
+        public Network.SnapshotAck read(Kryo kryo, Input input, Class<? extends Network.SnapshotAck> type) {
+            reused.tick = input.readVarInt(true);
+            return reused;
+        }
+    }
+
+    /**
+     * {@code [byte codec][packet]} with the packet as it is for {@link Network.Compressed#NONE}, and
+     * {@code [varint length][varint compressed length][raw Deflate]} for {@link Network.Compressed#DEFLATE}.
+     * The packet is encoded first and only deflated from {@link Network.Compressed#minBytes} on, and
+     * only sent deflated when that came out smaller.
+     *
+     * <p>Reading returns the packet inside, so listeners never see the wrapper. The Deflater, the
+     * Inflater and all buffers belong to the serializer and are reused; like the other state here
+     * that relies on its Kryo being used by one thread at a time.
+     */
+    public static class CompressedSerializer extends Serializer<Object> {
+        // Speed over ratio, the packets are small; -DdeflateLevel=1..9
+        private static final int LEVEL = Integer.getInteger("deflateLevel", Deflater.BEST_SPEED);
+        // Largest packet inflated, so a corrupt length can't ask for any amount of memory
+        private static final int MAX_BYTES = 1 << 20;
+
+        private final Output raw = new Output(1024, MAX_BYTES);
+        private final Input inflated = new Input();
+        private final Deflater deflater = new Deflater(LEVEL, true);
+        private final Inflater inflater = new Inflater(true);
+        private byte[] packed = new byte[1024];
+        private byte[] unpacked = new byte[1024];
+
+        @Override
+        public void write(Kryo kryo, Output output, Object object) {
+            Network.Compressed c = (Network.Compressed) object;
+            raw.reset();
+            kryo.writeClassAndObject(raw, c.packet);
+            int length = raw.position();
+            if (c.codec == Network.Compressed.DEFLATE && length >= c.minBytes) {
+                int packedLength = deflate(raw.getBuffer(), length);
+                if (packedLength < length) {
+                    output.writeByte(Network.Compressed.DEFLATE);
+                    output.writeVarInt(length, true);
+                    output.writeVarInt(packedLength, true);
+                    output.writeBytes(packed, 0, packedLength);
+                    return;
+                }
+            }
+            output.writeByte(Network.Compressed.NONE);
+            output.writeBytes(raw.getBuffer(), 0, length);
+        }
+
+        private int deflate(byte[] bytes, int length) {
+            deflater.reset();
+            deflater.setInput(bytes, 0, length);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == packed.length) {
+                    if (n >= length) return n; // not getting any smaller
+                    packed = Arrays.copyOf(packed, packed.length * 2);
+                }
+                n += deflater.deflate(packed, n, packed.length - n);
+            }
+            return n;
+        }
+
+        @Override
+        public Object read(Kryo kryo, Input input, Class<?> type) {
+            int codec = input.readByte();
+            if (codec == Network.Compressed.NONE) return kryo.readClassAndObject(input);
+            if (codec != Network.Compressed.DEFLATE) throw new KryoException("Unknown codec: " + codec);
+
+            int length = input.readVarInt(true);
+            int packedLength = input.readVarInt(true);
+            if (length > MAX_BYTES || packedLength > MAX_BYTES) throw new KryoException("Compressed packet too large: " + length);
+            if (packed.length < packedLength) packed = new byte[Math.max(packedLength, packed.length * 2)];
+            if (unpacked.length < length) unpacked = new byte[Math.max(length, unpacked.length * 2)];
+            input.readBytes(packed, 0, packedLength);
+
+            inflater.reset();
+            inflater.setInput(packed, 0, packedLength);
+            try {
+                if (inflater.inflate(unpacked, 0, length) != length || !inflater.finished()) {
+                    throw new KryoException("Corrupt compressed packet");
+                }
+            } catch (DataFormatException e) {
+                throw new KryoException("Corrupt compressed packet", e);
+            }
+            inflated.setBuffer(unpacked, 0, length);
+            return kryo.readClassAndObject(inflated);
+        }
+    }
+
+    /**
+     * {@code [byte channel << 1 | has message][varint ackNext][int ackBits]([varint sequence][message])}.
+     * The message is written as the sender encoded it and read as a packet of its own. Reads reuse
+     * one instance, the receiving thread takes what it needs right away.
+     */
+    public static class ReliableSerializer extends Serializer<Network.Reliable> {
+        private final Network.Reliable reused = new Network.Reliable();
+        Traffic traffic; // see Network.count()
+
+        @Override
+        public void write(Kryo kryo, Output output, Network.Reliable r) {
+            boolean message = r.sequence >= 0;
+            output.writeByte(r.channel << 1 | (message ? 1 : 0));
+            output.writeVarInt(r.ackNext, true);
+            output.writeInt(r.ackBits);
+            if (!message) return;
+            output.writeVarInt(r.sequence, true);
+            output.writeBytes(r.bytes, 0, r.length);
+        }
+
+        @Override
+        public Network.Reliable read(Kryo kryo, Input input, Class<? extends Network.Reliable> type) {
+            int header = input.readByte() & 0xff;
+            reused.channel = header >>> 1;
+            if (reused.channel >= Network.Reliable.CHANNELS) throw new KryoException("Unknown channel: " + reused.channel);
+            reused.ackNext = input.readVarInt(true);
+            reused.ackBits = input.readInt();
+            if ((header & 1) == 0) {
+                reused.sequence = -1;
+                reused.packet = null;
+            } else {
+                reused.sequence = input.readVarInt(true);
+                // the message was encoded on its own, so it counts like one: after its class id
+                Registration registration = kryo.readClass(input);
+                long start = input.total();
+                reused.packet = registration == null ? null : kryo.readObject(input, registration.getType());
+                if (traffic != null && reused.packet != null) traffic.read(registration.getType(), (int) (input.total() - start));
+            }
+            return reused;
+        }
+    }
+}
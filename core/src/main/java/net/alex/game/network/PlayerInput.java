@@ -0,0 +1,43 @@
+package net.alex.game.network;
+
+/**
+ * Movement rules shared by the client's prediction and the server simulation, so both
+ * move a player exactly the same way for the same input commands.
+ * One command is one byte (buttons | shape << 4) and covers one fixed {@link #STEP}.
+ */
+public class PlayerInput {
+    public static final int UP = 1, DOWN = 2, LEFT = 4, RIGHT = 8;
+    private static final int BUTTON_MASK = UP | DOWN | LEFT | RIGHT;
+    private static final int SHAPE_SHIFT = 4;
+
+    public static final float SPEED = 200f; // units per second
+    // Commands per second while input is held; client and server must agree
+    public static final int RATE = Integer.getInteger("inputRate", 60);
+    public static final float STEP = 1f / RATE;
+
+    public static byte pack(int buttons, int shape) {
+        return (byte) ((buttons & BUTTON_MASK) | (shape & 3) << SHAPE_SHIFT);
+    }
+
+    public static int buttons(int input) {
+        return input & BUTTON_MASK;
+    }
+
+    public static int shape(int input) {
+        return input >>> SHAPE_SHIFT & 3;
+    }
+
+    public static float dx(int input) {
+        float dx = 0;
+        if ((input & LEFT) != 0) dx -= SPEED * STEP;
+        if ((input & RIGHT) != 0) dx += SPEED * STEP;
+        return dx;
+    }
+
+    public static float dy(int input) {
+        float dy = 0;
+        if ((input & UP) != 0) dy += SPEED * STEP;
+        if ((input & DOWN) != 0) dy -= SPEED * STEP;
+        return dy;
+    }
+}
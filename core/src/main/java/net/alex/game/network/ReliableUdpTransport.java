@@ -0,0 +1,454 @@
+package net.alex.game.network;
+
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Sends the reliable packets of another {@link Transport} over its unreliable path, so a lost TCP
+ * segment no longer holds up every reliable packet behind it while UDP keeps flowing. Picked with
+ * -Dreliable=udp, on clients and servers alike.
+ *
+ * <p>Every link has {@link Network.Reliable#CHANNELS} channels, ordered independently. A message
+ * gets the next sequence number of its channel and is kept, encoded, until the peer acks it.
+ * Every datagram carries the sender's acks for its channel: everything before {@code ackNext},
+ * and a bitfield of the 32 messages after it that arrived early, so only what is missing gets
+ * sent again. A message is resent as soon as one sent a quarter round trip after it is acked,
+ * like TCP's RACK, and otherwise once the retransmission timeout passes, which follows the measured
+ * round trip like TCP's. There is no exponential backoff: the messages are few and small, and it is
+ * their latency that matters. Received messages wait for the gaps before them and reach the
+ * listener in order.
+ *
+ * <p>A timer thread shared by all servers and clients sends the acks that had no message to ride
+ * on and does the resends. Like KryoNet with a full TCP write buffer, a link is closed once its unacked bytes
+ * exceed the write buffer or a channel has {@link #WINDOW} messages in flight.
+ */
+public class ReliableUdpTransport implements Transport {
+    // Messages in flight per channel, and how far ahead of a gap a receiver keeps them; a power of two
+    static final int WINDOW = 256;
+    private static final int MASK = WINDOW - 1;
+    // Acks and resends go out this often
+    private static final long TIMER_MS = Long.getLong("reliableTimerMs", 10);
+    private static final long MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("reliableMinRto", 30));
+    private static final long MAX_RTO_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long INITIAL_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    // A message acked ahead of an earlier one means that one is lost, unless they were sent this close
+    private static final long MIN_REORDER_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static final LongAdder RESENT = new LongAdder();
+
+    // One timer thread for every server and client in the JVM, a load test runs hundreds of clients
+    private static final Set<Endpoint> RUNNING = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService timer;
+
+    private final Transport transport;
+
+    public ReliableUdpTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /** Messages sent again so far, by every endpoint in this JVM. */
+    public static long resent() {
+        return RESENT.sum();
+    }
+
+    @Override
+    public Transport.Server newServer(int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener) {
+        ReliableServer server = new ReliableServer(writeBufferSize, objectBufferSize, () -> transport.newKryo(setup), listener);
+        server.server = transport.newServer(writeBufferSize, objectBufferSize, setup, server);
+        return server;
+    }
+
+    @Override
+    public Transport.Client newClient(int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener) {
+        ReliableClient client = new ReliableClient(writeBufferSize, objectBufferSize, () -> transport.newKryo(setup), listener);
+        client.client = transport.newClient(writeBufferSize, objectBufferSize, setup, client);
+        return client;
+    }
+
+    @Override
+    public Kryo newKryo(Consumer<Kryo> setup) {
+        return transport.newKryo(setup);
+    }
+
+    // ---- Endpoint ----
+    /** A server or client: listens to the transport underneath, and is updated by the timer. */
+    private abstract static class Endpoint implements Listener {
+        final int writeBufferSize;
+        final Listener listener;
+        private final ThreadLocal<Output> outputs;
+        private final ThreadLocal<Kryo> encoders;
+        final ConcurrentHashMap<Link, ReliableLink> links = new ConcurrentHashMap<>();
+
+        Endpoint(int writeBufferSize, int objectBufferSize, Supplier<Kryo> kryos, Listener listener) {
+            this.writeBufferSize = writeBufferSize;
+            this.listener = listener;
+            // fixed size: a packet bigger than the object buffer fails here as it would over KryoNet
+            this.outputs = ThreadLocal.withInitial(() -> new Output(objectBufferSize));
+            this.encoders = ThreadLocal.withInitial(kryos);
+        }
+
+        /** A copy of {@code packet} as it goes over the wire, kept until acked. */
+        byte[] encode(Object packet) {
+            Output output = outputs.get();
+            output.reset();
+            encoders.get().writeClassAndObject(output, packet);
+            return output.toBytes();
+        }
+
+        void startTimer() {
+            RUNNING.add(this);
+            synchronized (RUNNING) {
+                if (timer != null) return;
+                timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "ReliableUdpTimer");
+                    t.setDaemon(true);
+                    return t;
+                });
+                timer.scheduleAtFixedRate(() -> {
+                    long now = System.nanoTime();
+                    for (Endpoint endpoint : RUNNING) {
+                        for (ReliableLink link : endpoint.links.values()) link.update(now);
+                    }
+                }, TIMER_MS, TIMER_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void stopTimer() {
+            RUNNING.remove(this);
+        }
+
+        ReliableLink open(Link link) {
+            ReliableLink reliable = new ReliableLink(this, link);
+            links.put(link, reliable);
+            return reliable;
+        }
+
+        /** What the listener is given for {@code link}. */
+        Link visible(ReliableLink link) {
+            return link;
+        }
+
+        abstract void free(Object packet);
+
+        // ---- Transport underneath, its update thread ----
+        @Override
+        public void connected(Link link) {
+            ReliableLink reliable = links.get(link);
+            if (reliable == null) reliable = open(link);
+            listener.connected(visible(reliable));
+        }
+
+        @Override
+        public void disconnected(Link link) {
+            ReliableLink reliable = links.remove(link);
+            listener.disconnected(visible(reliable != null ? reliable : new ReliableLink(this, link)));
+        }
+
+        @Override
+        public void received(Link link, Object packet) {
+            ReliableLink reliable = links.get(link);
+            if (reliable == null) {
+                free(packet);
+            } else if (packet instanceof Network.Reliable) {
+                reliable.receive((Network.Reliable) packet);
+            } else {
+                listener.received(visible(reliable), packet);
+            }
+        }
+    }
+
+    // ---- Link ----
+    /** Sending and receiving state of one channel of a link. */
+    private static class Channel {
+        // Sending: messages from oldest up to nextSequence, null once acked
+        int nextSequence, oldest;
+        final byte[][] unacked = new byte[WINDOW][];
+        final long[] sentAt = new long[WINDOW];
+        final int[] sends = new int[WINDOW];
+        long ackedSentAt = System.nanoTime(); // when the newest message acked so far was last sent
+
+        // Receiving: messages that arrived ahead of nextExpected, and whether the peer needs to hear so
+        int nextExpected;
+        final Object[] early = new Object[WINDOW];
+        boolean ackDue;
+
+        int ackBits() {
+            int bits = 0;
+            for (int i = 0; i < 32; i++) {
+                if (early[(nextExpected + 1 + i) & MASK] != null) bits |= 1 << i;
+            }
+            return bits;
+        }
+    }
+
+    private static class ReliableLink implements Link {
+        final Endpoint endpoint;
+        final Link link;
+        private final Channel[] channels = new Channel[Network.Reliable.CHANNELS];
+        private final Network.Reliable outgoing = new Network.Reliable(); // encoded right away, reused
+        private final Array<Object> delivered = new Array<>(); // receiving thread only
+        private volatile int unackedBytes;
+        private long srtt, rttVariance, rto = INITIAL_RTO_NANOS;
+
+        ReliableLink(Endpoint endpoint, Link link) {
+            this.endpoint = endpoint;
+            this.link = link;
+            for (int i = 0; i < channels.length; i++) channels[i] = new Channel();
+        }
+
+        @Override
+        public void sendReliable(Object packet) {
+            int channel = Network.Reliable.channelOf(packet);
+            byte[] bytes = endpoint.encode(packet);
+            synchronized (this) {
+                if (!link.isConnected()) return;
+                Channel c = channels[channel];
+                if (c.nextSequence - c.oldest >= WINDOW || unackedBytes + bytes.length > endpoint.writeBufferSize) {
+                    System.out.println("⚠️ Reliable UDP link " + link.id() + " has too much unacked, closing");
+                    link.close();
+                    return;
+                }
+                int sequence = c.nextSequence++;
+                int slot = sequence & MASK;
+                c.unacked[slot] = bytes;
+                c.sentAt[slot] = System.nanoTime();
+                c.sends[slot] = 1;
+                unackedBytes += bytes.length;
+                transmit(channel, sequence, bytes);
+            }
+        }
+
+        /** Holding the lock: one datagram with the channel's acks, and the message if there is one. */
+        private void transmit(int channel, int sequence, byte[] bytes) {
+            Channel c = channels[channel];
+            outgoing.channel = channel;
+            outgoing.sequence = sequence;
+            outgoing.bytes = bytes;
+            outgoing.length = bytes == null ? 0 : bytes.length;
+            outgoing.ackNext = c.nextExpected;
+            outgoing.ackBits = c.ackBits();
+            c.ackDue = false;
+            link.sendUnreliable(outgoing);
+        }
+
+        /** Receiving thread. */
+        void receive(Network.Reliable r) {
+            synchronized (this) {
+                Channel c = channels[r.channel];
+                long now = System.nanoTime();
+                acked(c, r.ackNext, r.ackBits, now);
+                resend(r.channel, now);
+                if (r.sequence >= 0) {
+                    c.ackDue = true; // duplicates too, the ack that should have stopped them was lost
+                    accept(c, r.sequence, r.packet);
+                }
+            }
+            Link visible = endpoint.visible(this);
+            for (int i = 0; i < delivered.size; i++) endpoint.listener.received(visible, delivered.get(i));
+            delivered.clear();
+        }
+
+        private void accept(Channel c, int sequence, Object packet) {
+            int ahead = sequence - c.nextExpected;
+            if (ahead < 0 || ahead >= WINDOW || c.early[sequence & MASK] != null) {
+                endpoint.free(packet); // seen already, or too far ahead: it will come again
+                return;
+            }
+            if (ahead > 0) {
+                c.early[sequence & MASK] = packet;
+                return;
+            }
+            delivered.add(packet);
+            c.nextExpected++;
+            Object next;
+            while ((next = c.early[c.nextExpected & MASK]) != null) {
+                c.early[c.nextExpected & MASK] = null;
+                delivered.add(next);
+                c.nextExpected++;
+            }
+        }
+
+        private void acked(Channel c, int ackNext, int ackBits, long now) {
+            if (ackNext > c.nextSequence) return; // not ours, e.g. left over from an earlier connection
+            while (c.oldest < ackNext) release(c, c.oldest++, now);
+            for (int i = 0; ackBits != 0 && i < 32; i++) {
+                int sequence = ackNext + 1 + i;
+                if ((ackBits & 1 << i) != 0 && sequence >= c.oldest && sequence < c.nextSequence) release(c, sequence, now);
+            }
+            while (c.oldest < c.nextSequence && c.unacked[c.oldest & MASK] == null) c.oldest++;
+        }
+
+        private void release(Channel c, int sequence, long now) {
+            int slot = sequence & MASK;
+            byte[] bytes = c.unacked[slot];
+            if (bytes == null) return;
+            c.unacked[slot] = null;
+            unackedBytes -= bytes.length;
+            if (c.sentAt[slot] - c.ackedSentAt > 0) c.ackedSentAt = c.sentAt[slot];
+            // only messages sent once tell the round trip, a resent one could be acked for either send
+            if (c.sends[slot] == 1) sample(now - c.sentAt[slot]);
+        }
+
+        private void sample(long rtt) {
+            if (srtt == 0) {
+                srtt = rtt;
+                rttVariance = rtt / 2;
+            } else {
+                rttVariance += (Math.abs(srtt - rtt) - rttVariance) / 4;
+                srtt += (rtt - srtt) / 8;
+            }
+            rto = Math.max(MIN_RTO_NANOS, Math.min(MAX_RTO_NANOS, srtt + 4 * rttVariance));
+        }
+
+        /** Timer thread: resends what timed out, then acks that nothing took along. */
+        synchronized void update(long now) {
+            if (!link.isConnected()) return;
+            for (int channel = 0; channel < channels.length; channel++) {
+                resend(channel, now);
+                if (channels[channel].ackDue) transmit(channel, -1, null);
+            }
+        }
+
+        /** Holding the lock: sends again what was overtaken by a later message, or timed out. */
+        private void resend(int channel, long now) {
+            Channel c = channels[channel];
+            long reorder = Math.max(MIN_REORDER_NANOS, srtt / 4);
+            for (int sequence = c.oldest; sequence < c.nextSequence; sequence++) {
+                int slot = sequence & MASK;
+                byte[] bytes = c.unacked[slot];
+                if (bytes == null) continue;
+                long sentAt = c.sentAt[slot];
+                if (c.ackedSentAt - sentAt <= reorder && now - sentAt < rto) continue;
+                c.sentAt[slot] = now;
+                c.sends[slot]++;
+                RESENT.increment();
+                transmit(channel, sequence, bytes);
+            }
+        }
+
+        @Override public int id() { return link.id(); }
+        @Override public void sendUnreliable(Object packet) { link.sendUnreliable(packet); }
+        @Override public boolean isConnected() { return link.isConnected(); }
+        @Override public int queuedBytes() { return link.queuedBytes() + unackedBytes; }
+        @Override public int rtt() { return link.rtt(); }
+        @Override public void updateRtt() { link.updateRtt(); }
+        @Override public void close() { link.close(); }
+    }
+
+    // ---- Server ----
+    private static class ReliableServer extends Endpoint implements Transport.Server {
+        Transport.Server server;
+
+        ReliableServer(int writeBufferSize, int objectBufferSize, Supplier<Kryo> kryos, Listener listener) {
+            super(writeBufferSize, objectBufferSize, kryos, listener);
+        }
+
+        @Override
+        public void bind(int tcpPort, int udpPort) throws IOException {
+            server.bind(tcpPort, udpPort);
+            startTimer();
+        }
+
+        @Override
+        public Link[] links() {
+            return links.values().toArray(new Link[0]);
+        }
+
+        @Override
+        public void broadcastReliable(Object packet) {
+            for (ReliableLink link : links.values()) link.sendReliable(packet);
+        }
+
+        @Override
+        public void broadcastUnreliable(Object packet) {
+            server.broadcastUnreliable(packet);
+        }
+
+        @Override
+        public void free(Object packet) {
+            server.free(packet);
+        }
+
+        @Override
+        public void stop() {
+            stopTimer();
+            server.stop();
+        }
+    }
+
+    // ---- Client ----
+    private static class ReliableClient extends Endpoint implements Transport.Client {
+        Transport.Client client;
+        private volatile ReliableLink link;
+
+        ReliableClient(int writeBufferSize, int objectBufferSize, Supplier<Kryo> kryos, Listener listener) {
+            super(writeBufferSize, objectBufferSize, kryos, listener);
+        }
+
+        @Override
+        public void connect(String host, int tcpPort, int udpPort, int timeoutMs) throws IOException {
+            // fresh sequences before the transport underneath can report the connection
+            link = open(client);
+            client.connect(host, tcpPort, udpPort, timeoutMs);
+            startTimer();
+        }
+
+        @Override
+        Link visible(ReliableLink link) {
+            return this; // like KryoNet, the client is its own connection
+        }
+
+        @Override
+        public int id() {
+            return client.id();
+        }
+
+        @Override
+        public void sendReliable(Object packet) {
+            ReliableLink l = link;
+            if (l != null) l.sendReliable(packet);
+        }
+
+        @Override
+        public void sendUnreliable(Object packet) {
+            client.sendUnreliable(packet);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return client.isConnected();
+        }
+
+        @Override
+        public int queuedBytes() {
+            ReliableLink l = link;
+            return l == null ? client.queuedBytes() : l.queuedBytes();
+        }
+
+        @Override public int rtt() { return client.rtt(); }
+        @Override public void updateRtt() { client.updateRtt(); }
+        @Override public void close() { client.close(); }
+
+        @Override
+        public void free(Object packet) {
+            client.free(packet);
+        }
+
+        @Override
+        public void stop() {
+            stopTimer();
+            client.stop();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package net.alex.game.network;
+
+import java.util.Arrays;
+
+/**
+ * Full world state at one server tick, kept by both sides so snapshots can be
+ * sent as a delta against a state the client already acknowledged.
+ * Entities are stored in parallel arrays sorted by id, which lets two frames be
+ * compared with a single merge pass. Frames are reused once they drop out of the history.
+ */
+public class SnapshotFrame {
+    // Frames kept on each side, ~1 second at 30 Hz; older acks fall back to a full snapshot
+    public static final int HISTORY = 32;
+    public static final SnapshotFrame EMPTY = new SnapshotFrame(-1, 0);
+
+    public int tick;
+    public int size;
+    public int[] ids;
+    public float[] xs, ys;
+    public int[] shapes;
+
+    public SnapshotFrame(int tick, int capacity) {
+        this.tick = tick;
+        ids = new int[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+        shapes = new int[capacity];
+    }
+
+    /** Empties the frame for reuse at another tick, keeping its arrays. */
+    public void reset(int tick) {
+        this.tick = tick;
+        size = 0;
+    }
+
+    /** Appends an entity; ids must be added in ascending order. */
+    public void add(int id, float x, float y, int shape) {
+        if (size == ids.length) {
+            int capacity = Math.max(8, size * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            shapes = Arrays.copyOf(shapes, capacity);
+        }
+        ids[size] = id;
+        xs[size] = x;
+        ys[size] = y;
+        shapes[size] = shape;
+        size++;
+    }
+
+    /** Makes this frame a copy of {@code other}, keeping its own arrays. */
+    public void set(SnapshotFrame other) {
+        reset(other.tick);
+        for (int i = 0; i < other.size; i++) add(other.ids[i], other.xs[i], other.ys[i], other.shapes[i]);
+    }
+
+    /** Index of {@code id}, or a negative value if it is not in this frame. */
+    public int indexOf(int id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+    // === Delta encoding ===
+    /**
+     * Writes what changed from {@code baseline} to {@code current} into {@code out}: new entities
+     * with all fields set, existing ones with only their changed fields, and removed ids,
+     * both in ascending id order.
+     */
+    public static void diff(SnapshotFrame baseline, SnapshotFrame current, Network.WorldSnapshot out) {
+        int i = 0, j = 0;
+        while (i < baseline.size || j < current.size) {
+            int oldId = i < baseline.size ? baseline.ids[i] : Integer.MAX_VALUE;
+            int newId = j < current.size ? current.ids[j] : Integer.MAX_VALUE;
+
+            if (oldId < newId) {
+                out.addRemoved(oldId);
+                i++;
+            } else if (newId < oldId) {
+                delta(out.addChanged(), current, j, Network.EntityDelta.ALL);
+                j++;
+            } else {
+                int fields = 0;
+                if (baseline.xs[i] != current.xs[j]) fields |= Network.EntityDelta.X;
+                if (baseline.ys[i] != current.ys[j]) fields |= Network.EntityDelta.Y;
+                if (baseline.shapes[i] != current.shapes[j]) fields |= Network.EntityDelta.SHAPE;
+                if (fields != 0) delta(out.addChanged(), current, j, fields);
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private static void delta(Network.EntityDelta d, SnapshotFrame frame, int index, int fields) {
+        d.id = frame.ids[index];
+        d.fields = fields;
+        d.x = frame.xs[index];
+        d.y = frame.ys[index];
+        d.shape = frame.shapes[index];
+    }
+
+    /**
+     * Rebuilds the full state into {@code into} from a baseline and all {@code partCount} parts of
+     * a delta snapshot. Changes are ascending across the parts in order, removals are in part 0.
+     */
+    public static void apply(SnapshotFrame baseline, Network.WorldSnapshot[] parts, int partCount, SnapshotFrame into) {
+        into.reset(parts[0].tick);
+        Network.WorldSnapshot first = parts[0];
+        int i = 0, r = 0;
+        int p = 0, c = 0; // cursor over all changes
+        while (true) {
+            while (p < partCount && c >= parts[p].changedCount) {
+                p++;
+                c = 0;
+            }
+            Network.EntityDelta d = p < partCount ? parts[p].changed[c] : null;
+            if (i >= baseline.size && d == null) break;
+
+            int oldId = i < baseline.size ? baseline.ids[i] : Integer.MAX_VALUE;
+            int newId = d != null ? d.id : Integer.MAX_VALUE;
+
+            if (oldId < newId) {
+                while (r < first.removedCount && first.removed[r] < oldId) r++;
+                if (r == first.removedCount || first.removed[r] != oldId) {
+                    into.add(oldId, baseline.xs[i], baseline.ys[i], baseline.shapes[i]);
+                }
+                i++;
+            } else {
+                boolean known = oldId == newId;
+                float x = (d.fields & Network.EntityDelta.X) != 0 || !known ? d.x : baseline.xs[i];
+                float y = (d.fields & Network.EntityDelta.Y) != 0 || !known ? d.y : baseline.ys[i];
+                int shape = (d.fields & Network.EntityDelta.SHAPE) != 0 || !known ? d.shape : baseline.shapes[i];
+                into.add(newId, x, y, shape);
+                if (known) i++;
+                c++;
+            }
+        }
+    }
+}
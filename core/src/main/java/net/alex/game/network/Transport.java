@@ -0,0 +1,120 @@
+package net.alex.game.network;
+
+import com.esotericsoftware.kryo.Kryo;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * How packets get between clients and the server. Game code only talks to these interfaces;
+ * {@link KryoNetTransport} is the real network and {@link LoopbackTransport} connects clients
+ * and server inside one JVM without sockets, so tests, benchmarks and load tests can measure
+ * the simulation instead of the network stack. Picked with -Dtransport=kryonet|loopback.
+ * {@link ReliableUdpTransport} sits on top of either to move reliable packets off TCP.
+ *
+ * <p>Threading follows KryoNet: every server and client has one update thread that decodes what
+ * it receives and makes all {@link Listener} calls. Sending works from any thread.
+ */
+public interface Transport {
+    /**
+     * @param writeBufferSize   bytes of reliable packets a link may queue before it fails
+     * @param objectBufferSize  largest encoded packet
+     * @param setup             registers the packets on every Kryo the transport creates
+     */
+    Server newServer(int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener);
+
+    Client newClient(int writeBufferSize, int objectBufferSize, Consumer<Kryo> setup, Listener listener);
+
+    /** A Kryo that encodes packets exactly as this transport's own, for encoding them ahead of sending. */
+    Kryo newKryo(Consumer<Kryo> setup);
+
+    /**
+     * -Dtransport=kryonet (default) or loopback; with -Dreliable=udp reliable packets go over its
+     * unreliable path through a {@link ReliableUdpTransport} instead of TCP.
+     */
+    static Transport fromSystemProperties() {
+        String name = System.getProperty("transport", "kryonet");
+        Transport transport;
+        switch (name) {
+            case "kryonet":
+                transport = KryoNetTransport.INSTANCE;
+                break;
+            case "loopback":
+                transport = LoopbackTransport.INSTANCE;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown -Dtransport=" + name + ", use kryonet or loopback");
+        }
+        String reliable = System.getProperty("reliable", "tcp");
+        switch (reliable) {
+            case "tcp":
+                return transport;
+            case "udp":
+                return new ReliableUdpTransport(transport);
+            default:
+                throw new IllegalArgumentException("Unknown -Dreliable=" + reliable + ", use tcp or udp");
+        }
+    }
+
+    /** Called on the update thread of the server or client the link belongs to. */
+    interface Listener {
+        default void connected(Link link) {}
+
+        default void disconnected(Link link) {}
+
+        void received(Link link, Object packet);
+    }
+
+    /** One connection, the same object from connected() to disconnected(). */
+    interface Link {
+        int id();
+
+        /** Arrives in order or not at all, like TCP. */
+        void sendReliable(Object packet);
+
+        /** May be lost, like UDP; keep it within one datagram. */
+        void sendUnreliable(Object packet);
+
+        boolean isConnected();
+
+        /** Bytes of reliable packets not written to the network yet. */
+        int queuedBytes();
+
+        /** Newest measured round trip in milliseconds, -1 before the first. */
+        int rtt();
+
+        /** Asks for a fresh {@link #rtt()}. */
+        void updateRtt();
+
+        void close();
+    }
+
+    interface Server {
+        /** Starts accepting clients and the update thread. */
+        void bind(int tcpPort, int udpPort) throws IOException;
+
+        /** The connected links, a copy. */
+        Link[] links();
+
+        void broadcastReliable(Object packet);
+
+        void broadcastUnreliable(Object packet);
+
+        /** Hands a received pooled packet back, see {@link Network#free(Kryo, Object)}. Update thread only. */
+        void free(Object packet);
+
+        void stop();
+    }
+
+    /** The client is its own link to the server. */
+    interface Client extends Link {
+        /** Starts the update thread if needed and blocks until connected or failed. */
+        void connect(String host, int tcpPort, int udpPort, int timeoutMs) throws IOException;
+
+        /** Hands a received pooled packet back, see {@link Network#free(Kryo, Object)}. Update thread only. */
+        void free(Object packet);
+
+        /** Closes the connection and ends the update thread; the client can't connect again. */
+        void stop();
+    }
+}
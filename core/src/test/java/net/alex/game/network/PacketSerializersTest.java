@@ -0,0 +1,235 @@
+package net.alex.game.network;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Round trips through the packet serializers: quantization error, id/shape packing and delta field masks. */
+class PacketSerializersTest {
+    private static final int[] FRACTION_BITS = {0, 4, 8, 12, 16};
+
+    private final Output output = new Output(256, -1);
+
+    // ---- Quantization ----
+    @Test
+    void quantizationErrorIsAtMostHalfAStep() {
+        Random random = new Random(42);
+        for (int bits : FRACTION_BITS) {
+            Kryo kryo = kryo(bits);
+            PacketSerializers.Quantizer quantizer = new PacketSerializers.Quantizer(bits);
+            float maxError = 0.5f / (1 << bits);
+            for (int i = 0; i < 10_000; i++) {
+                // most of them near the origin, where the step is what limits precision
+                float range = i % 2 == 0 ? 1000f : quantizer.limit;
+                Network.PlayerUpdate u = update(1, (random.nextFloat() * 2 - 1) * range, (random.nextFloat() * 2 - 1) * range, 1);
+                Network.PlayerUpdate read = roundTrip(kryo, u);
+                assertTrue(Math.abs(read.x - u.x) <= maxError, bits + " bits: " + u.x + " came back as " + read.x);
+                assertTrue(Math.abs(read.y - u.y) <= maxError, bits + " bits: " + u.y + " came back as " + read.y);
+            }
+        }
+    }
+
+    @Test
+    void negativeCoordinatesRoundTrip() {
+        for (int bits : FRACTION_BITS) {
+            Kryo kryo = kryo(bits);
+            PacketSerializers.Quantizer quantizer = new PacketSerializers.Quantizer(bits);
+            float step = 1f / (1 << bits);
+            float[] values = {-step, -1f, -1000f - Math.min(step, 0.5f) * 2, -quantizer.limit / 2, -quantizer.limit};
+            for (float value : values) {
+                Network.PlayerUpdate read = roundTrip(kryo, update(1, value, value, 1));
+                // all of these are on the grid, so they come back exactly
+                assertEquals(value, read.x, bits + " bits");
+                assertEquals(value, read.y, bits + " bits");
+            }
+            Network.PlayerUpdate rounded = roundTrip(kryo, update(1, -0.3f * step, -0.7f * step, 1));
+            assertEquals(0f, rounded.x, 0f, bits + " bits");
+            assertEquals(-step, rounded.y, bits + " bits");
+        }
+    }
+
+    @Test
+    void positionsOutOfRangeAreRejected() {
+        PacketSerializers.Quantizer sixteen = new PacketSerializers.Quantizer(16);
+        assertEquals(32768f, sixteen.limit);
+        sixteen.quantize(32767.99f);
+        sixteen.quantize(-32768f);
+        for (float value : new float[]{32768f, 40000f, -32768.01f, -1e9f, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY}) {
+            assertThrows(KryoException.class, () -> sixteen.quantize(value), "16 bits: " + value);
+        }
+
+        Kryo kryo = kryo(16);
+        assertThrows(KryoException.class, () -> kryo.writeObject(output, update(1, 40000f, 0f, 1)));
+        assertThrows(KryoException.class, () -> new PacketSerializers.Quantizer(4).quantize(1e9f));
+    }
+
+    // ---- Id and shape packing ----
+    @Test
+    void idAndShapeRoundTripAtTheEdges() {
+        Kryo kryo = kryo(4);
+        int[] ids = {0, 1, 31, 32, 8191, 8192, PacketSerializers.MAX_ID - 1, PacketSerializers.MAX_ID};
+        for (int id : ids) {
+            for (int shape = 0; shape <= 3; shape++) {
+                Network.PlayerUpdate read = roundTrip(kryo, update(id, 0f, 0f, shape));
+                assertEquals(id, read.id);
+                assertEquals(shape, read.shape);
+            }
+        }
+    }
+
+    @Test
+    void idAndShapeShareOneVarint() {
+        Kryo kryo = kryo(4);
+        // x and y at 0 take a byte each
+        assertEquals(1 + 2, size(kryo, update(31, 0f, 0f, 3))); // 31 << 2 | 3 = 127, one varint byte
+        assertEquals(2 + 2, size(kryo, update(32, 0f, 0f, 0)));
+        assertEquals(5 + 2, size(kryo, update(PacketSerializers.MAX_ID, 0f, 0f, 3)));
+    }
+
+    @Test
+    void idsThatDontFitAreRejected() {
+        Kryo kryo = kryo(4);
+        assertThrows(KryoException.class, () -> kryo.writeObject(output, update(PacketSerializers.MAX_ID + 1, 0f, 0f, 1)));
+        assertThrows(KryoException.class, () -> kryo.writeObject(output, update(-1, 0f, 0f, 1)));
+    }
+
+    // ---- EntityDelta ----
+    @Test
+    void deltaWritesOnlyTheFlaggedFields() {
+        Kryo kryo = kryo(4);
+        for (int fields = 0; fields <= Network.EntityDelta.ALL; fields++) {
+            Network.EntityDelta d = new Network.EntityDelta();
+            d.id = 300;
+            d.fields = fields;
+            d.x = 12.5f;   // 200, zig-zag 400: 2 bytes
+            d.y = -7.25f;  // -116, zig-zag 231: 2 bytes
+            d.shape = 2;
+
+            // id 2 bytes, header 1
+            int expected = 3 + ((fields & Network.EntityDelta.X) != 0 ? 2 : 0) + ((fields & Network.EntityDelta.Y) != 0 ? 2 : 0);
+            assertEquals(expected, size(kryo, d), "fields " + fields);
+
+            Network.EntityDelta read = roundTrip(kryo, d);
+            assertEquals(300, read.id);
+            assertEquals(fields, read.fields);
+            assertEquals((fields & Network.EntityDelta.X) != 0 ? 12.5f : 0f, read.x, "fields " + fields);
+            assertEquals((fields & Network.EntityDelta.Y) != 0 ? -7.25f : 0f, read.y, "fields " + fields);
+            assertEquals((fields & Network.EntityDelta.SHAPE) != 0 ? 2 : 0, read.shape, "fields " + fields);
+        }
+    }
+
+    @Test
+    void snapshotRoundTripKeepsDeltasAndRemovals() {
+        Kryo kryo = kryo(4);
+        Network.WorldSnapshot s = new Network.WorldSnapshot();
+        s.tick = 1000;
+        s.baselineTick = 998;
+        s.inputSequence = 77;
+        s.interval = 2;
+        for (int id = 1; id <= 5; id++) {
+            Network.EntityDelta d = s.addChanged();
+            d.id = id * 100;
+            d.fields = id % 2 == 0 ? Network.EntityDelta.ALL : Network.EntityDelta.X;
+            d.x = -id * 1.5f;
+            d.y = id * 2.25f;
+            d.shape = 1 + id % 3;
+        }
+        s.addRemoved(3);
+        s.addRemoved(4);
+        s.addRemoved(1_000_000);
+
+        Network.WorldSnapshot read = roundTrip(kryo, s);
+        assertEquals(1000, read.tick);
+        assertEquals(998, read.baselineTick);
+        assertEquals(77, read.inputSequence);
+        assertEquals(2, read.interval);
+        assertEquals(5, read.changedCount);
+        for (int i = 0; i < 5; i++) {
+            Network.EntityDelta d = s.changed[i], r = read.changed[i];
+            assertEquals(d.id, r.id);
+            assertEquals(d.fields, r.fields);
+            assertEquals(d.x, r.x);
+            if ((d.fields & Network.EntityDelta.Y) != 0) assertEquals(d.y, r.y);
+            if ((d.fields & Network.EntityDelta.SHAPE) != 0) assertEquals(d.shape, r.shape);
+        }
+        assertEquals(3, read.removedCount);
+        assertEquals(3, read.removed[0]);
+        assertEquals(4, read.removed[1]);
+        assertEquals(1_000_000, read.removed[2]);
+    }
+
+    // ---- Traffic counters ----
+    @Test
+    void reliableMessagesAreCountedLikeTheirPacket() {
+        StringBuilder counted = new StringBuilder();
+        Kryo kryo = kryo(4);
+        Network.count(kryo, new PacketSerializers.Traffic() {
+            @Override
+            public void written(Class<?> type, int bytes) {
+                counted.append("written ").append(type.getSimpleName()).append(' ').append(bytes).append(';');
+            }
+
+            @Override
+            public void read(Class<?> type, int bytes) {
+                counted.append("read ").append(type.getSimpleName()).append(' ').append(bytes).append(';');
+            }
+        });
+
+        // as ReliableUdpTransport sends it: encoded on its own, then wrapped
+        Network.AssignId assign = new Network.AssignId();
+        assign.id = 1234;
+        output.reset();
+        kryo.writeClassAndObject(output, assign);
+        Network.Reliable r = new Network.Reliable();
+        r.channel = Network.Reliable.SESSION;
+        r.sequence = 7;
+        r.bytes = output.toBytes();
+        r.length = r.bytes.length;
+        int size = counted.length();
+        String written = counted.substring(counted.indexOf(" ") + 1);
+
+        output.reset();
+        kryo.writeClassAndObject(output, r);
+        assertEquals(size, counted.length()); // the wrapper itself isn't a packet
+        Network.Reliable read = (Network.Reliable) kryo.readClassAndObject(new Input(output.getBuffer(), 0, output.position()));
+        assertEquals(1234, ((Network.AssignId) read.packet).id);
+        assertEquals("written " + written + "read " + written, counted.toString());
+    }
+
+    // ---- Helpers ----
+    private static Kryo kryo(int fractionBits) {
+        Kryo kryo = new Kryo();
+        Network.register(kryo, fractionBits);
+        return kryo;
+    }
+
+    private static Network.PlayerUpdate update(int id, float x, float y, int shape) {
+        Network.PlayerUpdate u = new Network.PlayerUpdate();
+        u.id = id;
+        u.x = x;
+        u.y = y;
+        u.shape = shape;
+        return u;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(Kryo kryo, T object) {
+        output.reset();
+        kryo.writeObject(output, object);
+        return (T) kryo.readObject(new Input(output.getBuffer(), 0, output.position()), object.getClass());
+    }
+
+    private int size(Kryo kryo, Object object) {
+        output.reset();
+        kryo.writeObject(output, object);
+        return output.position();
+    }
+}
@@ -0,0 +1,258 @@
+package net.alex.game.loadtest;
+
+import com.badlogic.gdx.utils.LongArray;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import net.alex.game.InputPredictor;
+import net.alex.game.network.Network;
+import net.alex.game.network.PlayerInput;
+import net.alex.game.network.Transport;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * One simulated player: a real client (KryoNet, or loopback with -Dtransport) that registers, plays input commands the
+ * way the game client does (predicted, sent in batches) and acknowledges snapshots, while
+ * measuring what it sends and receives.
+ */
+public class Bot {
+    // Sequences remembered for latency, same window as the predictor's
+    private static final int SENT_WINDOW = 128;
+
+    public enum Pattern { RANDOM, CIRCLE, BOUNCE, STILL }
+    // CIRCLE with four buttons: half a second along each side of a square
+    private static final int[] SQUARE = {PlayerInput.RIGHT, PlayerInput.UP, PlayerInput.LEFT, PlayerInput.DOWN};
+
+    private final int index;
+    private final LoadTest.Stats stats;
+    private final Pattern pattern;
+    private final float arena;
+    private final Random random;
+    private final Transport.Client client;
+
+    // Re-encode packets to count their bytes (KryoNet doesn't count them), one per thread
+    private final Sizer received = new Sizer(), sent = new Sizer();
+
+    // Input side: touched by the driver thread only
+    private final InputPredictor prediction = new InputPredictor();
+    private final Network.InputBatch batch = new Network.InputBatch();
+    private final long[] sentNanos = new long[SENT_WINDOW];
+    private int highestSent;
+    private int buttons;
+    private float patternTime;
+
+    // Receive side: touched by the client's update thread only
+    private volatile int playerId = -1;
+    private float serverX, serverY;
+    private int latestInput;
+    private volatile int lastTick = -1, snapshotsReceived, snapshotsExpected;
+    private int partsTick = -1, partsSeen;
+    private final Network.SnapshotAck ack = new Network.SnapshotAck();
+
+    // Update thread to driver thread: the newest confirmed input and position, reconciled in step()
+    private final Confirmed confirmed = new Confirmed();
+
+    // End-to-end input latencies in nanoseconds, drained by the reporter
+    private final LongArray latencies = new LongArray();
+
+    public Bot(int index, LoadTest.Stats stats, Pattern pattern, float arena, long seed, Transport transport) {
+        this.index = index;
+        this.stats = stats;
+        this.pattern = pattern;
+        this.arena = arena;
+        this.random = new Random(seed);
+        // KryoNet's client buffer sizes
+        this.client = transport.newClient(8192, 2048, Network::register, new Transport.Listener() {
+            @Override
+            public void received(Transport.Link link, Object object) {
+                stats.bytesDown.add(received.size(object));
+                receive(object);
+            }
+
+            @Override
+            public void disconnected(Transport.Link link) {
+                stats.disconnects.increment();
+            }
+        });
+    }
+
+    public void connect(String host) throws IOException {
+        client.connect(host, Network.tcpPort, Network.udpPort, 5000);
+
+        Network.RegisterPlayer reg = new Network.RegisterPlayer();
+        reg.name = "bot" + index;
+        reg.compression = Network.Compressed.SUPPORTED;
+        client.sendReliable(reg);
+    }
+
+    public void close() {
+        client.stop();
+    }
+
+    // ---- Receiving (update thread) ----
+    private void receive(Object object) {
+        if (object instanceof Network.AssignId assign) {
+            playerId = assign.id;
+        } else if (object instanceof Network.WorldState state) {
+            for (Network.PlayerUpdate u : state.players) {
+                if (u.id == playerId) {
+                    serverX = u.x;
+                    serverY = u.y;
+                }
+                client.free(u);
+            }
+        } else if (object instanceof Network.WorldSnapshot s) {
+            snapshot(s);
+            client.free(s);
+        } else if (object instanceof Network.EventBatch events) {
+            client.free(events);
+        }
+    }
+
+    private void snapshot(Network.WorldSnapshot s) {
+        long now = System.nanoTime();
+        stats.snapshotParts.increment();
+        stats.entityUpdates.add(s.changedCount);
+
+        // our own entity only shows up when it changed against the baseline
+        for (int i = 0; i < s.changedCount; i++) {
+            Network.EntityDelta d = s.changed[i];
+            if (d.id != playerId) continue;
+            if ((d.fields & Network.EntityDelta.X) != 0) serverX = d.x;
+            if ((d.fields & Network.EntityDelta.Y) != 0) serverY = d.y;
+        }
+
+        // snapshots come every s.interval ticks, so larger gaps in the ticks are lost datagrams
+        if (s.tick != partsTick) {
+            if (s.tick < partsTick) return;
+            partsTick = s.tick;
+            partsSeen = 0;
+            snapshotsExpected += lastTick < 0 ? 1 : Math.max(1, Math.round((s.tick - lastTick) / (float) s.interval));
+            lastTick = s.tick;
+            snapshotsReceived++;
+        }
+        if (++partsSeen < s.partCount) return;
+
+        if (s.inputSequence > latestInput) {
+            synchronized (latencies) {
+                for (int seq = Math.max(latestInput + 1, s.inputSequence - SENT_WINDOW + 1); seq <= s.inputSequence; seq++) {
+                    long sentAt = sentNanos[seq % SENT_WINDOW];
+                    if (sentAt != 0) latencies.add(now - sentAt);
+                }
+            }
+            stats.inputsApplied.add(s.inputSequence - latestInput);
+            latestInput = s.inputSequence;
+        }
+        confirmed.set(s.inputSequence, serverX, serverY);
+
+        ack.tick = s.tick;
+        client.sendUnreliable(ack);
+        stats.bytesUp.add(received.size(ack));
+    }
+
+    // ---- Sending (driver thread) ----
+    /** Plays {@code delta} seconds of the movement pattern and sends the unconfirmed commands. */
+    public void step(float delta) {
+        if (playerId < 0 || !client.isConnected()) return;
+        if (confirmed.take()) prediction.reconcile(confirmed.sequence, confirmed.x, confirmed.y);
+        patternTime += delta;
+        steer();
+        prediction.sample(delta, buttons, 1);
+        if (!prediction.fill(batch)) return;
+
+        long now = System.nanoTime();
+        int newest = batch.firstSequence + batch.count - 1;
+        for (int seq = Math.max(highestSent + 1, batch.firstSequence); seq <= newest; seq++) {
+            sentNanos[seq % SENT_WINDOW] = now;
+        }
+        highestSent = Math.max(highestSent, newest);
+
+        client.sendUnreliable(batch);
+        stats.batchesSent.increment();
+        stats.bytesUp.add(sent.size(batch));
+    }
+
+    private void steer() {
+        switch (pattern) {
+            case STILL:
+                buttons = 0;
+                break;
+            case BOUNCE:
+                buttons = ((int) (patternTime / 2f) & 1) == 0 ? PlayerInput.RIGHT : PlayerInput.LEFT;
+                break;
+            case CIRCLE:
+                buttons = SQUARE[(int) (patternTime * 2f) & 3];
+                break;
+            case RANDOM:
+                if (patternTime >= 1f) {
+                    patternTime = 0;
+                    buttons = random.nextInt(16);
+                    // head back inside the arena once outside it
+                    float x = prediction.getX(), y = prediction.getY();
+                    if (x > arena) buttons = buttons & ~PlayerInput.RIGHT | PlayerInput.LEFT;
+                    if (x < -arena) buttons = buttons & ~PlayerInput.LEFT | PlayerInput.RIGHT;
+                    if (y > arena) buttons = buttons & ~PlayerInput.UP | PlayerInput.DOWN;
+                    if (y < -arena) buttons = buttons & ~PlayerInput.DOWN | PlayerInput.UP;
+                }
+                break;
+        }
+    }
+
+    // ---- Stats (reporter thread) ----
+    /** Moves this bot's latencies into {@code out}. */
+    public void drainLatencies(LongArray out) {
+        synchronized (latencies) {
+            out.addAll(latencies);
+            latencies.clear();
+        }
+    }
+
+    /** What the newest complete snapshot confirmed, set by the update thread and taken by the driver thread. */
+    private static class Confirmed {
+        private int nextSequence;
+        private float nextX, nextY;
+        private boolean fresh;
+        // driver thread, as of the last take()
+        int sequence;
+        float x, y;
+
+        synchronized void set(int sequence, float x, float y) {
+            nextSequence = sequence;
+            nextX = x;
+            nextY = y;
+            fresh = true;
+        }
+
+        /** Copies the newest confirmation into {@link #sequence}, {@link #x} and {@link #y}; false if there was none since. */
+        synchronized boolean take() {
+            if (!fresh) return false;
+            fresh = false;
+            sequence = nextSequence;
+            x = nextX;
+            y = nextY;
+            return true;
+        }
+    }
+
+    /** Payload bytes of a packet as KryoNet encodes it, without its length prefix and the IP/UDP/TCP headers. */
+    private static class Sizer {
+        private final Kryo kryo = new Kryo();
+        private final Output output = new Output(4096, -1);
+
+        Sizer() {
+            Network.register(kryo, Network.positionFractionBits);
+        }
+
+        int size(Object packet) {
+            output.reset();
+            kryo.writeClassAndObject(output, packet);
+            return output.position();
+        }
+    }
+
+    /** Snapshots received and how many the server sent meanwhile, for the loss estimate. */
+    public long snapshotsReceived() { return snapshotsReceived; }
+    public long snapshotsExpected() { return snapshotsExpected; }
+    public boolean isConnected() { return client.isConnected(); }
+}
@@ -0,0 +1,98 @@
+package net.alex.game.loadtest;
+
+import com.badlogic.gdx.utils.LongArray;
+import net.alex.game.network.LoopbackTransport;
+import net.alex.game.network.Network;
+import net.alex.game.network.ReliableUdpTransport;
+import net.alex.game.network.Transport;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reliable packets over a lossy, slow link: a server sends a steady stream of reliable events to
+ * one client over a {@link LoopbackTransport} with loss, latency and jitter, once the way TCP
+ * delivers them and once through {@link ReliableUdpTransport}, and reports how late they arrive
+ * and whether every one of them did, in order. Configured with system properties, e.g.
+ * {@code -Dloss=0.05 -Dlatency=80 -Djitter=20 -Drate=60 -Dduration=20}.
+ */
+public class LinkTest {
+    private static final double LOSS = Double.parseDouble(System.getProperty("loss", "0.02"));
+    private static final long LATENCY_MS = Long.getLong("latency", 50); // one way
+    private static final long JITTER_MS = Long.getLong("jitter", 10);
+    // Reliable events per second, and for how long
+    private static final int RATE = Integer.getInteger("rate", 60);
+    private static final int DURATION_S = Integer.getInteger("duration", 20);
+    private static final int PORT = 54600; // loopback only, nothing is bound
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(String.format(Locale.ROOT, "📶 Link test: %.1f%% loss, %d ms ± %d ms one way, %d events/s for %d s",
+                LOSS * 100, LATENCY_MS, JITTER_MS, RATE, DURATION_S));
+        LoopbackTransport network = new LoopbackTransport(LOSS, LATENCY_MS, JITTER_MS);
+        run("tcp", network, PORT);
+        run("udp", new ReliableUdpTransport(network), PORT + 1);
+        System.exit(0);
+    }
+
+    private static void run(String name, Transport transport, int port) throws Exception {
+        int count = RATE * DURATION_S;
+        long[] sentAt = new long[count];
+        LongArray latencies = new LongArray(count);
+        int[] next = {0}; // the event expected next, client update thread only
+        int[] outOfOrder = {0};
+        CountDownLatch connected = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Transport.Link[] link = new Transport.Link[1];
+
+        Transport.Server server = transport.newServer(16384, 2048, Network::register, new Transport.Listener() {
+            @Override
+            public void connected(Transport.Link l) {
+                link[0] = l;
+                connected.countDown();
+            }
+
+            @Override
+            public void received(Transport.Link l, Object packet) {
+            }
+        });
+        server.bind(port, port);
+        Transport.Client client = transport.newClient(16384, 2048, Network::register, (l, packet) -> {
+            if (!(packet instanceof Network.PlayerLeft left)) return;
+            latencies.add(System.nanoTime() - sentAt[left.id]);
+            if (left.id != next[0]) outOfOrder[0]++;
+            next[0] = left.id + 1;
+            if (latencies.size == count) done.countDown();
+        });
+        client.connect("localhost", port, port, 5000);
+        connected.await();
+
+        ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "LinkTestSender");
+            t.setDaemon(true);
+            return t;
+        });
+        Network.PlayerLeft event = new Network.PlayerLeft();
+        int[] sent = {0};
+        sender.scheduleAtFixedRate(() -> {
+            if (sent[0] == count) return;
+            event.id = sent[0];
+            sentAt[sent[0]++] = System.nanoTime();
+            link[0].sendReliable(event);
+        }, 0, 1_000_000_000L / RATE, TimeUnit.NANOSECONDS);
+
+        done.await(DURATION_S + 10, TimeUnit.SECONDS);
+        sender.shutdownNow();
+        int delivered = latencies.size;
+        System.out.println(String.format(Locale.ROOT,
+                "%s %s: %d/%d delivered, %d out of order | latency ms p50 %.1f p99 %.1f p99.9 %.1f max %.1f%s",
+                delivered == count && outOfOrder[0] == 0 ? "✅" : "❌", name, delivered, count, outOfOrder[0],
+                LoadTest.percentile(latencies, 0.5), LoadTest.percentile(latencies, 0.99),
+                LoadTest.percentile(latencies, 0.999), LoadTest.percentile(latencies, 1),
+                transport instanceof ReliableUdpTransport ? " | " + ReliableUdpTransport.resent() + " resent" : ""));
+        client.stop();
+        server.stop();
+    }
+}
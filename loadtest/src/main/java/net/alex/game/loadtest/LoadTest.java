@@ -0,0 +1,178 @@
+package net.alex.game.loadtest;
+
+import com.badlogic.gdx.utils.LongArray;
+import net.alex.game.ServerMain;
+import net.alex.game.network.LoopbackTransport;
+import net.alex.game.network.Transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load test: connects a swarm of {@link Bot}s to a server over KryoNet and reports
+ * what the server keeps up with. Everything is configured with system properties, e.g.
+ * {@code -Dbots=500 -Dduration=120 -Dpattern=random}, so runs are easy to repeat.
+ * With {@code -Dembedded=true -Dtransport=loopback} bots and server share the JVM without
+ * sockets, which measures the simulation without the network stack.
+ *
+ * <p>Reported per interval and for the whole run: snapshots, entity updates and applied input
+ * commands per second (the server's throughput as seen by its clients), input latency
+ * percentiles (command sent until a snapshot includes it), snapshot loss and payload bytes.
+ */
+public class LoadTest {
+    // ---- Config ----
+    private static final int BOTS = Integer.getInteger("bots", 100);
+    private static final String HOST = System.getProperty("host", "127.0.0.1");
+    private static final int DURATION_S = Integer.getInteger("duration", 60);
+    // Bots connect evenly spread over this many seconds
+    private static final int RAMP_UP_S = Integer.getInteger("rampUp", 10);
+    // random / circle / bounce / still
+    private static final Bot.Pattern PATTERN = Bot.Pattern.valueOf(System.getProperty("pattern", "random").toUpperCase(Locale.ROOT));
+    // Input batches per second per bot, like the game client's -DinputSendRate
+    private static final int SEND_RATE = Integer.getInteger("sendRate", 20);
+    private static final int REPORT_INTERVAL_S = Integer.getInteger("reportInterval", 5);
+    // Random walkers turn back once this far from the spawn point
+    private static final float ARENA = Float.parseFloat(System.getProperty("arena", "2000"));
+    private static final int DRIVER_THREADS = Integer.getInteger("driverThreads", 2);
+    // Start ServerMain in this JVM first, handy for a quick local number
+    private static final boolean EMBEDDED = Boolean.getBoolean("embedded");
+    // -Dtransport=loopback needs the server in this JVM, see EMBEDDED
+    private static final Transport TRANSPORT = Transport.fromSystemProperties();
+
+    /** Counters shared by all bots. */
+    public static class Stats {
+        final LongAdder snapshotParts = new LongAdder();
+        final LongAdder entityUpdates = new LongAdder();
+        final LongAdder inputsApplied = new LongAdder();
+        final LongAdder batchesSent = new LongAdder();
+        final LongAdder bytesDown = new LongAdder();
+        final LongAdder bytesUp = new LongAdder();
+        final LongAdder disconnects = new LongAdder();
+    }
+
+    private final Stats stats = new Stats();
+    private final ArrayList<Bot> bots = new ArrayList<>();
+    private final LongArray intervalLatencies = new LongArray();
+    private final LongArray allLatencies = new LongArray();
+    private final long[] previous = new long[6];
+
+    public static void main(String[] args) throws Exception {
+        if (TRANSPORT instanceof LoopbackTransport && !EMBEDDED) {
+            System.out.println("❌ -Dtransport=loopback only reaches a server in this JVM, add -Dembedded=true");
+            return;
+        }
+        if (EMBEDDED) {
+            ServerMain.main(new String[0]);
+        }
+        new LoadTest().run();
+        System.exit(0);
+    }
+
+    private void run() throws InterruptedException {
+        System.out.println("🤖 Load test: " + BOTS + " bots (" + PATTERN.name().toLowerCase(Locale.ROOT) + ") against "
+                + HOST + " for " + DURATION_S + " s, ramp-up " + RAMP_UP_S + " s");
+
+        for (int i = 0; i < BOTS; i++) {
+            bots.add(new Bot(i, stats, PATTERN, ARENA, i, TRANSPORT));
+        }
+
+        // Drivers step their share of the bots at the send rate
+        ScheduledExecutorService drivers = Executors.newScheduledThreadPool(DRIVER_THREADS, r -> {
+            Thread t = new Thread(r, "BotDriver");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = 1_000_000_000L / SEND_RATE;
+        float step = 1f / SEND_RATE;
+        for (int d = 0; d < DRIVER_THREADS; d++) {
+            int first = d;
+            drivers.scheduleAtFixedRate(() -> {
+                for (int i = first; i < bots.size(); i += DRIVER_THREADS) {
+                    try {
+                        bots.get(i).step(step);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, period, period, TimeUnit.NANOSECONDS);
+        }
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "LoadTestReport");
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> report(REPORT_INTERVAL_S, false), REPORT_INTERVAL_S, REPORT_INTERVAL_S, TimeUnit.SECONDS);
+
+        long rampStep = BOTS > 0 ? RAMP_UP_S * 1_000_000_000L / BOTS : 0;
+        for (int i = 0; i < BOTS; i++) {
+            try {
+                bots.get(i).connect(HOST);
+            } catch (Exception e) {
+                System.out.println("❌ Bot " + i + " failed to connect: " + e.getMessage());
+            }
+            long next = start + (i + 1) * rampStep;
+            long wait = next - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+        }
+
+        long end = start + DURATION_S * 1_000_000_000L;
+        long wait = end - System.nanoTime();
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+
+        reporter.shutdown();
+        reporter.awaitTermination(5, TimeUnit.SECONDS);
+        drivers.shutdown();
+        report((System.nanoTime() - start) / 1e9, true);
+        for (Bot bot : bots) bot.close();
+    }
+
+    private synchronized void report(double seconds, boolean total) {
+        intervalLatencies.clear();
+        for (Bot bot : bots) bot.drainLatencies(intervalLatencies);
+        allLatencies.addAll(intervalLatencies);
+        LongArray latencies = total ? allLatencies : intervalLatencies;
+
+        long[] now = {
+                stats.snapshotParts.sum(), stats.entityUpdates.sum(), stats.inputsApplied.sum(),
+                stats.batchesSent.sum(), stats.bytesDown.sum(), stats.bytesUp.sum()
+        };
+        long[] delta = new long[now.length];
+        for (int i = 0; i < now.length; i++) {
+            delta[i] = total ? now[i] : now[i] - previous[i];
+            previous[i] = now[i];
+        }
+
+        int connected = 0;
+        long received = 0, expected = 0;
+        for (Bot bot : bots) {
+            if (bot.isConnected()) connected++;
+            received += bot.snapshotsReceived();
+            expected += bot.snapshotsExpected();
+        }
+        double loss = expected == 0 ? 0 : 100.0 * (expected - received) / expected;
+
+        System.out.println(String.format(Locale.ROOT,
+                "%s %d/%d bots | snapshots %.0f/s, entity updates %.0f/s, inputs applied %.0f/s, batches sent %.0f/s"
+                        + " | latency ms p50 %.1f p95 %.1f p99 %.1f max %.1f | snapshot loss %.2f%%"
+                        + " | down %.1f KB/s, up %.1f KB/s | disconnects %d",
+                total ? "🏁 Total:" : "📊", connected, BOTS,
+                delta[0] / seconds, delta[1] / seconds, delta[2] / seconds, delta[3] / seconds,
+                percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99), percentile(latencies, 1),
+                loss, delta[4] / seconds / 1024, delta[5] / seconds / 1024, stats.disconnects.sum()));
+    }
+
+    /** In milliseconds; sorts {@code values}. */
+    static double percentile(LongArray values, double p) {
+        if (values.size == 0) return 0;
+        Arrays.sort(values.items, 0, values.size);
+        int index = (int) Math.ceil(p * values.size) - 1;
+        return values.get(Math.max(0, Math.min(index, values.size - 1))) / 1e6;
+    }
+}
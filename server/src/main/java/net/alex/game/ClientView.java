@@ -0,0 +1,221 @@
+package net.alex.game;
+
+import com.badlogic.gdx.utils.Array;
+import net.alex.game.network.Network;
+import net.alex.game.network.SnapshotFrame;
+import net.alex.game.network.Transport;
+
+/**
+ * Server-side view of one connection: the snapshots recently sent to it, the
+ * newest one it acknowledged, which is the baseline for the next delta,
+ * which players are currently inside its area of interest, and how much it is sent.
+ * Only touched by the simulation thread, or during a tick by the worker whose partition it is in.
+ */
+public class ClientView {
+    public final int connectionId;
+    public final int playerId;
+    final SendRate rate;
+    private final SnapshotFrame[] sent = new SnapshotFrame[SnapshotFrame.HISTORY];
+    private int ackedTick = -1;
+
+    // Area of interest, and the batches its enter/leave events go out in; reused every tick
+    private SnapshotFrame visible = SnapshotFrame.EMPTY;
+    private final Array<Network.EventBatch> eventBatches = new Array<>();
+    private final Array<Network.EventBatch> events = new Array<>(4);
+
+    // Reused every tick: the whole delta, its split-up parts and the list handed to the sender
+    private final Network.WorldSnapshot all = new Network.WorldSnapshot();
+    private final Array<Network.WorldSnapshot> parts = new Array<>();
+    private final Array<Network.WorldSnapshot> outgoing = new Array<>(4);
+
+    // Input commands: the last one applied, echoed in snapshots for reconciliation, and how many
+    // more may be applied before the client runs faster than PlayerInput.RATE allows
+    int inputSequence;
+    float inputBudget;
+
+    // Sort key for partitioning views across tick workers, see ServerWorld
+    long cell;
+
+    // Join state chunks not sent yet, null once all are out; the connection tells how full its buffer is
+    Transport.Link connection;
+    Array<Network.WorldState> joinChunks;
+    int joinChunksSent;
+
+    // Which changed entities go out first when the snapshot budget doesn't fit them all, see defer()
+    private int rotation;
+
+    // Wraps join chunks and events when the client agreed to a codec in RegisterPlayer, see bulk()
+    final Network.Compressed compressed = new Network.Compressed();
+
+    public ClientView(int connectionId, int playerId, SendRate rate) {
+        this.connectionId = connectionId;
+        this.playerId = playerId;
+        this.rate = rate;
+    }
+
+    /** {@code packet} as a bulk packet goes out: wrapped for compression if agreed. Send it before the next call. */
+    Object bulk(Object packet) {
+        if (compressed.codec == Network.Compressed.NONE) return packet;
+        compressed.packet = packet;
+        return compressed;
+    }
+
+    public void acknowledge(int tick) {
+        if (tick <= ackedTick) return;
+        ackedTick = tick;
+        rate.acked();
+    }
+
+    /**
+     * Replaces the visible set with {@code frame} (built from {@code players}, same order) and
+     * returns everyone who left or entered it, with names, as this tick's event batches.
+     * Like {@link #encode}, the batches are reused by the next call, so send them right away.
+     */
+    public Array<Network.EventBatch> updateInterest(SnapshotFrame frame, Array<ServerMain.Player> players) {
+        events.clear();
+        int i = 0, j = 0;
+        while (i < visible.size || j < frame.size) {
+            int oldId = i < visible.size ? visible.ids[i] : Integer.MAX_VALUE;
+            int newId = j < frame.size ? frame.ids[j] : Integer.MAX_VALUE;
+
+            if (oldId < newId) {
+                batch(frame.tick).addLeft(oldId);
+                i++;
+            } else {
+                if (newId < oldId) {
+                    ServerMain.Player p = players.get(j);
+                    Network.PlayerJoined joined = batch(frame.tick).addJoined();
+                    joined.id = p.id;
+                    joined.name = p.name;
+                    joined.x = p.x;
+                    joined.y = p.y;
+                    joined.shape = p.shape;
+                } else {
+                    i++;
+                }
+                j++;
+            }
+        }
+        visible = frame;
+        return events;
+    }
+
+    /** The batch to add the next event to, starting another one once it is full. */
+    private Network.EventBatch batch(int tick) {
+        if (events.notEmpty() && !events.peek().isFull()) return events.peek();
+        if (eventBatches.size == events.size) eventBatches.add(new Network.EventBatch());
+        Network.EventBatch batch = eventBatches.get(events.size);
+        batch.reset();
+        batch.tick = tick;
+        events.add(batch);
+        return batch;
+    }
+
+    /** The acknowledged frame, or {@link SnapshotFrame#EMPTY} if it is unknown or too old. */
+    private SnapshotFrame baseline(int currentTick) {
+        int acked = ackedTick;
+        if (acked < 0 || currentTick - acked >= SnapshotFrame.HISTORY) return SnapshotFrame.EMPTY;
+        SnapshotFrame frame = sent[acked % SnapshotFrame.HISTORY];
+        return frame != null && frame.tick == acked ? frame : SnapshotFrame.EMPTY;
+    }
+
+    /**
+     * Returns a frame to fill for {@code tick}, reusing the one that drops out of the
+     * history unless it is still referenced as the visible set.
+     */
+    public SnapshotFrame frameFor(int tick) {
+        SnapshotFrame frame = sent[tick % SnapshotFrame.HISTORY];
+        if (frame == null || frame == visible) return new SnapshotFrame(tick, 64);
+        frame.reset(tick);
+        return frame;
+    }
+
+    /**
+     * Encodes {@code current} against this client's baseline and remembers it as sent.
+     * Over the {@link SendRate} budget, some changes wait for a later snapshot, see {@link #defer}.
+     * The returned parts are reused by the next call, so send them right away.
+     */
+    public Array<Network.WorldSnapshot> encode(SnapshotFrame current, int maxPerPart) {
+        SnapshotFrame baseline = baseline(current.tick);
+        if (rate.budget != SendRate.UNLIMITED) defer(baseline, current, rate.budget);
+        sent[current.tick % SnapshotFrame.HISTORY] = current;
+
+        all.reset();
+        all.tick = current.tick;
+        all.baselineTick = baseline.tick;
+        all.inputSequence = inputSequence;
+        all.interval = rate.since(current.tick);
+        SnapshotFrame.diff(baseline, current, all);
+        rate.sent(current.tick, all.changedCount, connection, joinChunks != null);
+
+        outgoing.clear();
+        if (all.changedCount <= maxPerPart) {
+            outgoing.add(all);
+            return outgoing;
+        }
+
+        int partCount = (all.changedCount + maxPerPart - 1) / maxPerPart;
+        while (parts.size < partCount) parts.add(new Network.WorldSnapshot());
+        for (int part = 0; part < partCount; part++) {
+            Network.WorldSnapshot s = parts.get(part);
+            s.reset();
+            s.tick = all.tick;
+            s.baselineTick = all.baselineTick;
+            s.inputSequence = all.inputSequence;
+            s.interval = all.interval;
+            s.part = part;
+            s.partCount = partCount;
+            int to = Math.min((part + 1) * maxPerPart, all.changedCount);
+            for (int j = part * maxPerPart; j < to; j++) {
+                Network.EntityDelta from = all.changed[j], d = s.addChanged();
+                d.id = from.id;
+                d.fields = from.fields;
+                d.x = from.x;
+                d.y = from.y;
+                d.shape = from.shape;
+            }
+            if (part == 0) {
+                for (int j = 0; j < all.removedCount; j++) s.addRemoved(all.removed[j]);
+            }
+            outgoing.add(s);
+        }
+        return outgoing;
+    }
+
+    /**
+     * Puts all but {@code budget} of the entities that changed since {@code baseline} back to
+     * their baseline values, so the client keeps what it has and they show up as changed in a
+     * later snapshot; the frame remembered as sent is then exactly what the client ends up with.
+     * Which ones wait rotates from snapshot to snapshot. Entities new to the client and its own
+     * player, which it reconciles its prediction against, always go out.
+     */
+    private void defer(SnapshotFrame baseline, SnapshotFrame current, int budget) {
+        int waiting = 0, always = 0;
+        for (int i = 0, j = 0; j < current.size; j++) {
+            while (i < baseline.size && baseline.ids[i] < current.ids[j]) i++;
+            if (i == baseline.size || baseline.ids[i] != current.ids[j]) always++;
+            else if (changed(baseline, i, current, j)) {
+                if (current.ids[j] == playerId) always++;
+                else waiting++;
+            }
+        }
+        int allowed = Math.max(0, budget - always);
+        if (waiting <= allowed) return;
+
+        int first = rotation % waiting, k = 0;
+        for (int i = 0, j = 0; j < current.size; j++) {
+            while (i < baseline.size && baseline.ids[i] < current.ids[j]) i++;
+            if (i == baseline.size || baseline.ids[i] != current.ids[j] || current.ids[j] == playerId) continue;
+            if (!changed(baseline, i, current, j)) continue;
+            if ((k++ - first + waiting) % waiting < allowed) continue;
+            current.xs[j] = baseline.xs[i];
+            current.ys[j] = baseline.ys[i];
+            current.shapes[j] = baseline.shapes[i];
+        }
+        rotation = first + allowed;
+    }
+
+    private static boolean changed(SnapshotFrame a, int i, SnapshotFrame b, int j) {
+        return a.xs[i] != b.xs[j] || a.ys[i] != b.ys[j] || a.shapes[i] != b.shapes[j];
+    }
+}
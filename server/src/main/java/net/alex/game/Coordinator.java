@@ -0,0 +1,158 @@
+package net.alex.game;
+
+import com.badlogic.gdx.utils.IntIntMap;
+import com.badlogic.gdx.utils.IntMap;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+import com.esotericsoftware.kryonet.Server;
+import net.alex.game.network.Network;
+
+import java.io.IOException;
+
+/**
+ * Entry point of a world split into zones (see {@link ZoneMap}). Clients connect here on the
+ * usual ports and register; the coordinator looks up which zone owns their player, or picks
+ * the spawn zone and a fresh id for a new one, and redirects them to that zone server.
+ * It also relays player transfers between zones when someone crosses a border.
+ *
+ * <p>It keeps no files: zone servers report the players they own whenever they connect, and
+ * registrations are turned away until every zone has. All state belongs to KryoNet's update thread.
+ *
+ * <pre>
+ * java -Dzones=127.0.0.1:54565:54787,127.0.0.1:54575:54797 net.alex.game.Coordinator
+ * java -Dzones=... -Dzone=0 net.alex.game.ServerMain
+ * java -Dzones=... -Dzone=1 net.alex.game.ServerMain
+ * </pre>
+ */
+public class Coordinator {
+    private static final float SPAWN_X = 0; // new players start at the origin, see Player
+
+    private final ZoneMap zones;
+    private final Server server = new Server();
+    private final Connection[] zoneConnections;
+    private final boolean[] reported;
+    private final IntIntMap directory = new IntIntMap(); // player id -> zone
+    private final IntMap<Connection> joining = new IntMap<>(); // new players until their zone has them
+    private int nextPlayerId = 1;
+
+    public Coordinator(ZoneMap zones) {
+        this.zones = zones;
+        this.zoneConnections = new Connection[zones.count()];
+        this.reported = new boolean[zones.count()];
+    }
+
+    public static void main(String[] args) throws IOException {
+        ZoneMap zones = ZoneMap.fromSystemProperties();
+        if (zones == null) {
+            System.out.println("❌ No zones configured, start with -Dzones=host:tcpPort:udpPort,...");
+            return;
+        }
+        Coordinator coordinator = new Coordinator(zones);
+        coordinator.start(Network.tcpPort, Network.udpPort);
+        Runtime.getRuntime().addShutdownHook(new Thread(coordinator::stop));
+    }
+
+    public void start(int tcpPort, int udpPort) throws IOException {
+        Network.register(server);
+        server.addListener(new Listener() {
+            @Override
+            public void received(Connection c, Object object) {
+                if (object instanceof Network.ZoneHello hello) {
+                    zoneHello(c, hello);
+                } else if (object instanceof Network.RegisterPlayer reg) {
+                    register(c, reg);
+                } else if (object instanceof Network.PlayerTransfer transfer) {
+                    forward(transfer.toZone, transfer);
+                } else if (object instanceof Network.TransferDone done) {
+                    transferDone(done);
+                }
+            }
+
+            @Override
+            public void disconnected(Connection c) {
+                for (int zone = 0; zone < zoneConnections.length; zone++) {
+                    if (zoneConnections[zone] == c) {
+                        zoneConnections[zone] = null;
+                        reported[zone] = false;
+                        System.out.println("⚠️ Zone " + zone + " disconnected");
+                    }
+                }
+            }
+        });
+        server.bind(tcpPort, udpPort);
+        server.start();
+        System.out.println("🧭 Coordinator on TCP:" + tcpPort + " UDP:" + udpPort + " for " + zones.count() + " zones");
+    }
+
+    public void stop() {
+        server.stop();
+    }
+
+    private void zoneHello(Connection c, Network.ZoneHello hello) {
+        if (hello.zone < 0 || hello.zone >= zoneConnections.length) {
+            System.out.println("❌ Unknown zone " + hello.zone + ", check -Dzones on both sides");
+            c.close();
+            return;
+        }
+        zoneConnections[hello.zone] = c;
+        for (int id : hello.playerIds) {
+            directory.put(id, hello.zone);
+            nextPlayerId = Math.max(nextPlayerId, id + 1);
+        }
+        if (hello.last) {
+            reported[hello.zone] = true;
+            System.out.println("Zone " + hello.zone + " ready, " + directory.size + " players known");
+        }
+    }
+
+    private boolean ready() {
+        for (boolean zone : reported) if (!zone) return false;
+        return true;
+    }
+
+    private void register(Connection c, Network.RegisterPlayer reg) {
+        if (!ready()) {
+            // ids could clash with players of a zone that hasn't reported yet
+            System.out.println("Turned away " + reg.name + ", not every zone is up");
+            c.close();
+            return;
+        }
+
+        int zone = directory.get(reg.id, -1);
+        if (reg.id != 0 && zone >= 0) {
+            c.sendTCP(zones.redirect(zone, 0));
+            return;
+        }
+
+        // === New player: its spawn zone creates it first, see transferDone ===
+        Network.PlayerTransfer transfer = new Network.PlayerTransfer();
+        transfer.id = nextPlayerId++;
+        transfer.name = reg.name;
+        transfer.shape = 1;
+        transfer.x = SPAWN_X;
+        transfer.fromZone = -1;
+        transfer.toZone = zones.zoneOf(SPAWN_X);
+        joining.put(transfer.id, c);
+        forward(transfer.toZone, transfer);
+    }
+
+    private void forward(int zone, Object packet) {
+        Connection target = zone >= 0 && zone < zoneConnections.length ? zoneConnections[zone] : null;
+        if (target == null) {
+            // the sender retries, see ServerWorld.checkBorder
+            System.out.println("⚠️ Zone " + zone + " is down, dropped " + packet.getClass().getSimpleName());
+            return;
+        }
+        target.sendTCP(packet);
+    }
+
+    private void transferDone(Network.TransferDone done) {
+        directory.put(done.id, done.toZone);
+        if (done.fromZone >= 0) {
+            forward(done.fromZone, done);
+            return;
+        }
+        Connection client = joining.remove(done.id);
+        if (client != null && client.isConnected()) client.sendTCP(zones.redirect(done.toZone, done.id));
+    }
+}
@@ -0,0 +1,162 @@
+package net.alex.game;
+
+import net.alex.game.network.PacketSerializers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Server runtime metrics. Counters are LongAdders and histograms are power-of-two buckets,
+ * so recording is lock-free and cheap enough for the tick, network and flusher threads.
+ * Everything is read through {@link #snapshot()}, which {@link MetricsEndpoint} serves over
+ * JMX and as plain text on localhost.
+ */
+public class Metrics {
+    // ---- Tick (nanoseconds) ----
+    public static final Histogram TICK = new Histogram();
+    public static final Histogram TICK_COMMANDS = new Histogram();  // commands, inputs and acks
+    public static final Histogram TICK_SIMULATION = new Histogram(); // the ECS step that applies the inputs
+    public static final Histogram TICK_BROADCAST = new Histogram(); // AOI, events and snapshots for every client
+    public static final LongAdder TICK_OVERRUNS = new LongAdder();  // ticks longer than the tick period
+
+    // ---- Network ----
+    public static final Histogram LISTENER = new Histogram(); // KryoNet callbacks, nanoseconds
+    public static final Histogram RTT = new Histogram();      // milliseconds, every connection once a second
+    public static final Histogram TCP_QUEUE = new Histogram(); // bytes waiting in a TCP write buffer, same sampling
+    public static final PacketTraffic TRAFFIC = new PacketTraffic();
+    public static final LongAdder HANDOFFS = new LongAdder(); // players sent on to another zone server
+    // Snapshot congestion control, see SendRate
+    public static final Histogram SNAPSHOT_INTERVAL = new Histogram(); // ticks between snapshots, per connection and window
+    public static final LongAdder SEND_RATE_CUTS = new LongAdder();     // windows that found a connection congested
+    public static final LongAdder SEND_PAUSED = new LongAdder();        // ticks a connection was skipped, its write buffer too full
+
+    // ---- Persistence ----
+    public static final Histogram JOURNAL_WRITE = new Histogram(); // append + force, nanoseconds
+    public static final Histogram COMPACTION = new Histogram();    // table force + journal reset, nanoseconds
+    public static final LongAdder JOURNAL_BYTES = new LongAdder();
+    public static final LongAdder PLAYER_CACHE_MISSES = new LongAdder(); // offline players read from disk, see PlayerRegistry
+
+    // Gauges and other values read at snapshot time, e.g. players online or per-connection RTT
+    private static final CopyOnWriteArrayList<Consumer<Map<String, Number>>> collectors = new CopyOnWriteArrayList<>();
+
+    public static void addCollector(Consumer<Map<String, Number>> collector) {
+        collectors.add(collector);
+    }
+
+    /** Every metric by name, names and labels as in Prometheus' text format. */
+    public static Map<String, Number> snapshot() {
+        Map<String, Number> out = new LinkedHashMap<>();
+        TICK.collect("tick_nanos", out);
+        TICK_COMMANDS.collect("tick_commands_nanos", out);
+        TICK_SIMULATION.collect("tick_simulation_nanos", out);
+        TICK_BROADCAST.collect("tick_broadcast_nanos", out);
+        out.put("tick_overruns_total", TICK_OVERRUNS.sum());
+        LISTENER.collect("listener_nanos", out);
+        RTT.collect("rtt_ms", out);
+        TCP_QUEUE.collect("tcp_write_buffer_bytes", out);
+        TRAFFIC.collect(out);
+        out.put("zone_handoffs_total", HANDOFFS.sum());
+        SNAPSHOT_INTERVAL.collect("snapshot_interval_ticks", out);
+        out.put("send_rate_cuts_total", SEND_RATE_CUTS.sum());
+        out.put("send_paused_ticks_total", SEND_PAUSED.sum());
+        JOURNAL_WRITE.collect("journal_write_nanos", out);
+        COMPACTION.collect("compaction_nanos", out);
+        out.put("journal_bytes_total", JOURNAL_BYTES.sum());
+        out.put("player_cache_misses_total", PLAYER_CACHE_MISSES.sum());
+        for (Consumer<Map<String, Number>> collector : collectors) collector.accept(out);
+        return out;
+    }
+
+    // ---- Histogram ----
+    /**
+     * Counts values in power-of-two buckets: quantiles are only accurate to a factor of two,
+     * which is plenty to tell a 2 ms tick from a 40 ms one.
+     */
+    public static class Histogram {
+        private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(65); // bucket i holds values below 2^i
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            long m;
+            while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+                // lost a race with a bigger or concurrent value, retry
+            }
+        }
+
+        /** Upper bound of the bucket holding the {@code q} quantile. */
+        public long quantile(double q) {
+            long total = 0;
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) total += counts[i] = buckets.get(i);
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return i == 0 ? 0 : Math.min((1L << i) - 1, max.get());
+            }
+            return max.get();
+        }
+
+        void collect(String name, Map<String, Number> out) {
+            out.put(name + "_count", count.sum());
+            out.put(name + "_sum", sum.sum());
+            out.put(name + "_max", max.get());
+            for (double q : QUANTILES) out.put(name + "{quantile=\"" + q + "\"}", quantile(q));
+        }
+    }
+
+    // ---- Packets ----
+    /** Packets and payload bytes per packet class and direction, fed by Network.count(). */
+    public static class PacketTraffic implements PacketSerializers.Traffic {
+        private final ConcurrentHashMap<Class<?>, LongAdder[]> byType = new ConcurrentHashMap<>();
+
+        private LongAdder[] of(Class<?> type) {
+            LongAdder[] adders = byType.get(type); // lock-free once the type was seen
+            if (adders == null) {
+                adders = byType.computeIfAbsent(type, t -> new LongAdder[]{new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()});
+            }
+            return adders;
+        }
+
+        @Override
+        public void written(Class<?> type, int bytes) {
+            LongAdder[] adders = of(type);
+            adders[0].increment();
+            adders[1].add(bytes);
+        }
+
+        @Override
+        public void read(Class<?> type, int bytes) {
+            LongAdder[] adders = of(type);
+            adders[2].increment();
+            adders[3].add(bytes);
+        }
+
+        private static final String[] NAMES = {"packets_out_total", "packet_bytes_out_total", "packets_in_total", "packet_bytes_in_total"};
+
+        void collect(Map<String, Number> out) {
+            ArrayList<Map.Entry<Class<?>, LongAdder[]>> entries = new ArrayList<>(byType.entrySet());
+            for (int i = 0; i < NAMES.length; i++) { // grouped by name, as the text format wants
+                for (Map.Entry<Class<?>, LongAdder[]> e : entries) {
+                    out.put(NAMES[i] + "{type=\"" + e.getKey().getSimpleName() + "\"}", e.getValue()[i].sum());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package net.alex.game;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Publishes {@link Metrics#snapshot()} as read-only JMX attributes (bean
+ * {@code net.alex.game:type=Metrics}) and as a plain-text page on
+ * {@code http://127.0.0.1:<port>/metrics}, one {@code name value} line per metric.
+ */
+public class MetricsEndpoint {
+    private HttpServer http;
+
+    public void start(int port) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName("net.alex.game:type=Metrics"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        if (port < 0) return;
+        try {
+            // loopback only: the numbers are for operators on the box, not for players
+            http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            http.createContext("/metrics", exchange -> {
+                byte[] body = text().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            http.start(); // one dispatcher thread of its own, never the tick or network thread
+            System.out.println("📈 Metrics on http://127.0.0.1:" + http.getAddress().getPort() + "/metrics");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void stop() {
+        if (http != null) http.stop(0);
+    }
+
+    static String text() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Number> e : Metrics.snapshot().entrySet()) {
+            out.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /** The same snapshot as JMX attributes, named like the text lines. */
+    private static class MetricsBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = Metrics.snapshot().get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+            return value.longValue();
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> snapshot = Metrics.snapshot();
+            AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                Number value = snapshot.get(name);
+                if (value != null) list.add(new Attribute(name, value.longValue()));
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            // attributes come and go with packet types and connections, so they are listed on demand
+            Map<String, Number> snapshot = Metrics.snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+            int i = 0;
+            for (String name : snapshot.keySet()) {
+                attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+            }
+            return new MBeanInfo(getClass().getName(), "Game server metrics", attributes, null, new MBeanOperationInfo[0], null);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package net.alex.game;
+
+import com.badlogic.gdx.utils.IntMap;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import net.alex.game.network.Network;
+import net.alex.game.network.Transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records everything the server receives and sends to a memory-mapped file, for {@link Replay}.
+ * The file starts with the player registry, then holds every connect, disconnect, packet in and
+ * packet out as it happens, and a marker before every tick.
+ *
+ * <p>Packets are encoded again by the calling thread with a Kryo of its own, which then claims
+ * the record's place in the file with a compare-and-set and copies the bytes there, next to
+ * other threads doing the same; only mapping the next chunk takes a lock. Nothing is flushed per
+ * record: the mapped pages belong to the OS, so even a killed server leaves a readable recording
+ * behind.
+ *
+ * <pre>
+ * header:  int magic, int version, int chunkBytes, int positionFractionBits, int tickRate, long startMillis
+ * record:  int length (of the rest, 0 = rest of the chunk unused), byte kind, long nanos, int connection, packet
+ * </pre>
+ * Records never cross a chunk, so the file can be mapped one chunk at a time.
+ */
+public class PacketRecorder {
+    static final int MAGIC = 0x47524543; // "GREC"
+    static final int VERSION = 3;
+    static final int HEADER_BYTES = 64;
+    static final int CHUNK_BYTES = 64 << 20;
+    static final int RECORD_HEADER = 1 + 8 + 4; // after the length
+
+    // Record kinds; PLAYER holds a PlayerTransfer with the stored state, TICK the tick about to run
+    public static final byte PLAYER = 1, CONNECTED = 2, DISCONNECTED = 3, IN = 4, OUT = 5, TICK = 6;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long maxBytes;
+    private final long startNanos = System.nanoTime();
+    private final ThreadLocal<Kryo> kryos = ThreadLocal.withInitial(() -> {
+        Kryo kryo = new Kryo();
+        kryo.setReferences(false);
+        Network.register(kryo);
+        return kryo;
+    });
+    private final ThreadLocal<Output> outputs = ThreadLocal.withInitial(() -> new Output(4096, -1));
+
+    // File offset of the next record; once stopped, ~ the length of the recording
+    private final AtomicLong next = new AtomicLong(HEADER_BYTES);
+    // Bytes below next that are written, or skipped at the end of a chunk, so close() can wait for the rest
+    private final AtomicLong written = new AtomicLong(HEADER_BYTES);
+    // Mapped chunks by index, replaced by a copy under the lock when one is added
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    // A received packet is recorded and queued while a tick is not being marked and the other way
+    // round, so a replay hands each tick exactly the packets the server's tick took from its queues.
+    // Set by the transport's update thread and the simulation thread, each checking the other's flag
+    private volatile boolean receiving, marking;
+    private int tick; // simulation thread
+    private boolean closed; // guarded by this
+
+    public PacketRecorder(File file, long maxBytes, int tickRate) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+        chunk(0).putInt(MAGIC).putInt(VERSION).putInt(CHUNK_BYTES).putInt(Network.positionFractionBits)
+                .putInt(tickRate).putLong(System.currentTimeMillis());
+    }
+
+    private MappedByteBuffer chunk(int index) throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        if (index < mapped.length && mapped[index] != null) return mapped[index];
+        synchronized (this) {
+            mapped = Arrays.copyOf(chunks, Math.max(index + 1, chunks.length));
+            if (mapped[index] == null) mapped[index] = channel.map(FileChannel.MapMode.READ_WRITE, (long) index * CHUNK_BYTES, CHUNK_BYTES);
+            chunks = mapped;
+            return mapped[index];
+        }
+    }
+
+    /** Claims {@code bytes} in the file, at the start of the next chunk if they don't fit into this one; -1 once stopped. */
+    private long reserve(int bytes) {
+        while (true) {
+            long pos = next.get();
+            if (pos < 0) return -1;
+            long chunkEnd = (pos / CHUNK_BYTES + 1) * CHUNK_BYTES;
+            long start = pos + bytes > chunkEnd ? chunkEnd : pos; // the rest of the old chunk stays zero
+            if ((start / CHUNK_BYTES + 1) * CHUNK_BYTES > maxBytes) { // its chunk would make the file too big
+                if (stop(pos)) System.out.println("⚠️ Recording " + file + " reached -DrecordMaxBytes, stopped");
+                continue;
+            }
+            if (next.compareAndSet(pos, start + bytes)) {
+                if (start != pos) written.addAndGet(start - pos);
+                return start;
+            }
+        }
+    }
+
+    /** Ends the recording at {@code pos} unless another thread got there first. */
+    private boolean stop(long pos) {
+        return pos >= 0 && next.compareAndSet(pos, ~pos);
+    }
+
+    // ---- Records ----
+    /** Before the server starts: one player of the registry as loaded. */
+    public void player(ServerMain.Player p) {
+        Network.PlayerTransfer state = new Network.PlayerTransfer();
+        state.id = p.id;
+        state.name = p.name;
+        state.x = p.x;
+        state.y = p.y;
+        state.shape = p.shape;
+        record(PLAYER, 0, state);
+    }
+
+    /** Simulation thread, right before each tick. */
+    public void tick(ServerWorld world) {
+        marking = true;
+        while (receiving) Thread.onSpinWait(); // at most the one packet being queued
+        record(TICK, ++tick, null);
+        world.barrier();
+        marking = false;
+    }
+
+    /** Transport's update thread, before recording what it is given; waits while a tick is marked. */
+    private void beginReceive() {
+        receiving = true;
+        while (marking) {
+            receiving = false;
+            while (marking) Thread.onSpinWait();
+            receiving = true;
+        }
+    }
+
+    private void endReceive() {
+        receiving = false;
+    }
+
+    public void record(byte kind, int connection, Object packet) {
+        Output output = outputs.get();
+        output.reset();
+        if (packet != null) kryos.get().writeClassAndObject(output, packet);
+        long nanos = System.nanoTime() - startNanos;
+
+        int length = RECORD_HEADER + output.position();
+        long start = reserve(4 + length);
+        if (start < 0) return;
+        try {
+            // absolute puts, the buffer's position is shared with the other writers
+            int at = (int) (start % CHUNK_BYTES);
+            chunk((int) (start / CHUNK_BYTES)).putInt(at, length).put(at + 4, kind).putLong(at + 5, nanos)
+                    .putInt(at + 13, connection).put(at + 4 + RECORD_HEADER, output.getBuffer(), 0, output.position());
+        } catch (IOException e) {
+            e.printStackTrace();
+            stop(next.get());
+        } finally {
+            written.addAndGet(4 + length);
+        }
+    }
+
+    public void close() {
+        long pos;
+        do {
+            pos = next.get();
+        } while (pos >= 0 && !stop(pos));
+        long length = ~next.get();
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        while (written.get() < length) Thread.onSpinWait(); // records claimed before the stop
+        for (MappedByteBuffer chunk : chunks) if (chunk != null) chunk.force();
+        chunks = new MappedByteBuffer[0];
+        try {
+            channel.truncate(length);
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("⏹️ Recorded " + (length >> 10) + " KB, " + tick + " ticks to " + file);
+    }
+
+    // ---- Transport ----
+    /**
+     * Records what {@code listener} is given, and what is sent on the links it is given.
+     * Called on the transport's update thread only, so the links need no synchronization.
+     */
+    public Transport.Listener wrap(Transport.Listener listener) {
+        return new Transport.Listener() {
+            private final IntMap<RecordingLink> links = new IntMap<>();
+
+            @Override
+            public void connected(Transport.Link link) {
+                RecordingLink recording = new RecordingLink(link);
+                links.put(link.id(), recording);
+                beginReceive();
+                try {
+                    record(CONNECTED, link.id(), null);
+                    listener.connected(recording);
+                } finally {
+                    endReceive();
+                }
+            }
+
+            @Override
+            public void disconnected(Transport.Link link) {
+                RecordingLink recording = links.remove(link.id());
+                beginReceive();
+                try {
+                    record(DISCONNECTED, link.id(), null);
+                    listener.disconnected(recording != null ? recording : new RecordingLink(link));
+                } finally {
+                    endReceive();
+                }
+            }
+
+            @Override
+            public void received(Transport.Link link, Object packet) {
+                RecordingLink recording = links.get(link.id());
+                beginReceive();
+                try {
+                    record(IN, link.id(), packet);
+                    listener.received(recording != null ? recording : new RecordingLink(link), packet);
+                } finally {
+                    endReceive();
+                }
+            }
+        };
+    }
+
+    private class RecordingLink implements Transport.Link {
+        private final Transport.Link link;
+
+        RecordingLink(Transport.Link link) {
+            this.link = link;
+        }
+
+        @Override
+        public void sendReliable(Object packet) {
+            record(OUT, link.id(), packet);
+            link.sendReliable(packet);
+        }
+
+        @Override
+        public void sendUnreliable(Object packet) {
+            record(OUT, link.id(), packet);
+            link.sendUnreliable(packet);
+        }
+
+        @Override public int id() { return link.id(); }
+        @Override public boolean isConnected() { return link.isConnected(); }
+        @Override public int queuedBytes() { return link.queuedBytes(); }
+        @Override public int rtt() { return link.rtt(); }
+        @Override public void updateRtt() { link.updateRtt(); }
+        @Override public void close() { link.close(); }
+    }
+}
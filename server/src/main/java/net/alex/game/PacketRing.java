@@ -0,0 +1,103 @@
+package net.alex.game;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer / single-consumer ring for the packets that arrive
+ * every tick from every client (input commands, snapshot acks). Slots are preallocated
+ * primitive fields, so neither side allocates. Follows Vyukov's bounded queue: each slot
+ * carries a sequence number telling producers and the consumer whose turn it is.
+ *
+ * <p>{@link #offer} leaves the last free slot alone, so the {@link #BARRIER} the consumer
+ * queues for itself never finds the ring full.
+ */
+public class PacketRing {
+    public static final int INPUT = 1; // id = connection id, a = sequence, b = input (see PlayerInput)
+    public static final int ACK = 2;   // id = connection id, a = acknowledged tick
+    public static final int BARRIER = 3; // drain() stops after it, see ServerWorld.barrier()
+
+    public interface Handler {
+        void handle(int kind, int id, int a, int b);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequence;
+    private final int[] kinds, ids, as, bs;
+    private final AtomicLong tail = new AtomicLong(); // next slot to claim, shared by producers
+    private final AtomicLong dropped = new AtomicLong();
+    private long head; // next slot to read, consumer only
+
+    /** {@code capacity} is rounded up to a power of two. */
+    public PacketRing(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        sequence = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) sequence.set(i, i);
+        kinds = new int[this.capacity];
+        ids = new int[this.capacity];
+        as = new int[this.capacity];
+        bs = new int[this.capacity];
+    }
+
+    /** Any thread. Returns false (and counts a drop) if the consumer is a full ring, less one slot, behind. */
+    public boolean offer(int kind, int id, int a, int b) {
+        return offer(kind, id, a, b, 1);
+    }
+
+    /**
+     * Queues a {@link #BARRIER} into the slot {@link #offer} keeps free. There is one such slot,
+     * so only one barrier may be queued per {@link #drain}.
+     */
+    public void barrier() {
+        if (!offer(BARRIER, 0, 0, 0, 0)) throw new IllegalStateException("a barrier is already queued");
+    }
+
+    /** Claims a slot if {@code reserved} more behind it are free too. */
+    private boolean offer(int kind, int id, int a, int b, int reserved) {
+        long pos;
+        int slot;
+        while (true) {
+            pos = tail.get();
+            slot = (int) pos & mask;
+            long diff = sequence.get(slot) - pos;
+            // the consumer frees slots in order, so the last one reserved being free is enough
+            if (diff == 0 && reserved > 0) diff = sequence.get((int) (pos + reserved) & mask) - (pos + reserved);
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+            } else if (diff < 0) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        kinds[slot] = kind;
+        ids[slot] = id;
+        as[slot] = a;
+        bs[slot] = b;
+        sequence.set(slot, pos + 1); // publishes the fields above
+        return true;
+    }
+
+    /**
+     * Consumer thread only. Hands every published entry to {@code handler}, oldest first,
+     * up to the first {@link #BARRIER}.
+     */
+    public int drain(Handler handler) {
+        int n = 0;
+        while (true) {
+            int slot = (int) head & mask;
+            if (sequence.get(slot) != head + 1) return n;
+            int kind = kinds[slot];
+            if (kind != BARRIER) handler.handle(kind, ids[slot], as[slot], bs[slot]);
+            sequence.lazySet(slot, head + capacity); // free for the producer one lap ahead
+            head++;
+            if (kind == BARRIER) return n;
+            n++;
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,157 @@
+package net.alex.game;
+
+import com.badlogic.gdx.utils.IntMap;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Every player the server knows, in three tiers so that memory grows with the players online
+ * rather than with everyone who ever registered:
+ * <ul>
+ *   <li>online: connected players, the ones the tick simulates, sends and queries,</li>
+ *   <li>cache: offline players in least recently used order, up to -DplayerCacheSize; a player
+ *   who disconnects goes here, and so does one read from disk to reconnect,</li>
+ *   <li>the {@link PlayerStore}'s table, one slot per id, for everyone else.</li>
+ * </ul>
+ * The cache only lets go of a player once the store has written it, so a read from disk never
+ * comes back older than what the server had in memory.
+ *
+ * <p>Simulation thread only, except {@link #getOnline}, which the tick's workers call while
+ * nothing changes.
+ */
+public class PlayerRegistry {
+    private static final int TRIM_SCAN = 64; // cached players looked at per trim, dirty ones are skipped
+
+    private final PlayerStore store;
+    private final int cacheSize;
+    private final IntMap<ServerMain.Player> online = new IntMap<>();
+    private final LinkedHashMap<Integer, ServerMain.Player> cache; // least recently used first
+    private int registered;
+
+    public PlayerRegistry(PlayerStore store, int cacheSize) {
+        this.store = store;
+        this.cacheSize = cacheSize;
+        this.registered = store.registered();
+        this.cache = new LinkedHashMap<>(Math.min(cacheSize, 1024), 0.75f, true);
+    }
+
+    /** The player with this id, read from disk into the cache if needed; null if there is none. */
+    public ServerMain.Player get(int id) {
+        ServerMain.Player p = online.get(id);
+        if (p != null) return p;
+        p = cache.get(id);
+        if (p != null) return p;
+        p = store.read(id);
+        if (p != null) {
+            Metrics.PLAYER_CACHE_MISSES.increment();
+            trim(1);
+            cache.put(id, p);
+        }
+        return p;
+    }
+
+    /** The player if it is in memory, without touching the cache's order or the disk. */
+    public ServerMain.Player resident(int id) {
+        ServerMain.Player p = online.get(id);
+        return p != null ? p : cache.get(id);
+    }
+
+    /** Connected players only. Safe for the tick's workers, which never run while the registry changes. */
+    public ServerMain.Player getOnline(int id) {
+        return online.get(id);
+    }
+
+    /** A player who was never registered here; an offline one must be marked dirty first, see {@link #trim}. */
+    public void add(ServerMain.Player p) {
+        registered++;
+        if (p.connectionId != -1) {
+            online.put(p.id, p);
+        } else {
+            trim(1);
+            cache.put(p.id, p);
+        }
+    }
+
+    /** {@code p}, from {@link #get}, just connected. */
+    public void setOnline(ServerMain.Player p) {
+        cache.remove(p.id);
+        online.put(p.id, p);
+    }
+
+    /**
+     * {@code p} disconnected; it stays in memory until the cache needs the room. Mark it dirty
+     * first if it changed, or it may be dropped for what is stored.
+     */
+    public void setOffline(ServerMain.Player p) {
+        if (online.remove(p.id) == null) return;
+        trim(1);
+        cache.put(p.id, p);
+    }
+
+    /** Forgets the player, wherever it is; the caller tells the store with {@link PlayerStore#markRemoved}. */
+    public ServerMain.Player remove(int id) {
+        ServerMain.Player p = online.remove(id);
+        if (p == null) p = cache.remove(id);
+        if (p == null) p = store.read(id);
+        if (p != null) registered--;
+        return p;
+    }
+
+    /**
+     * Drops least recently used players until {@code room} more fit, before they are put in, so
+     * never one that was just read or added. A dirty one stays until the store wrote it, so after
+     * a wave of disconnects the cache is over size for a flush or two.
+     */
+    private void trim(int room) {
+        Iterator<ServerMain.Player> it = cache.values().iterator();
+        for (int scanned = 0; cache.size() + room > cacheSize && scanned < TRIM_SCAN && it.hasNext(); scanned++) {
+            if (store.isClean(it.next().id)) it.remove();
+        }
+    }
+
+    public IntMap.Values<ServerMain.Player> online() {
+        return online.values();
+    }
+
+    public int onlineCount() {
+        return online.size;
+    }
+
+    public int cached() {
+        return cache.size();
+    }
+
+    public int registered() {
+        return registered;
+    }
+
+    /** The highest id the registry has seen. */
+    public int maxId() {
+        int maxId = 0;
+        try {
+            maxId = store.maxId();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (IntMap.Keys it = online.keys(); it.hasNext; ) maxId = Math.max(maxId, it.next());
+        for (int id : cache.keySet()) maxId = Math.max(maxId, id);
+        return maxId;
+    }
+
+    /** Every registered id: the ones in memory first, then the rest from disk. */
+    public void forEachId(IntConsumer each) {
+        for (IntMap.Keys it = online.keys(); it.hasNext; ) each.accept(it.next());
+        for (int id : cache.keySet()) each.accept(id);
+        try {
+            store.ids(id -> {
+                // what is in memory was listed already; an id not yet clean is being removed
+                if (!online.containsKey(id) && !cache.containsKey(id) && store.isClean(id)) each.accept(id);
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
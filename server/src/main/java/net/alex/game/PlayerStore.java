@@ -0,0 +1,529 @@
+package net.alex.game;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.IntSet;
+import com.badlogic.gdx.utils.Json;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind persistence for the player registry, and the registry's bottom tier.
+ * Every player has a fixed-size slot in {@code <name>.players} at {@code id * }{@link #SLOT_BYTES},
+ * so the id is the index and a player who isn't in memory is one positioned read away.
+ *
+ * <p>Game code only marks players dirty; a background thread appends their records to
+ * {@code <name>.journal} every {@code flushIntervalMs} or as soon as {@code dirtyThreshold}
+ * players changed, then copies them into their slots. Once the journal grows past
+ * {@code compactBytes} the table is forced to disk and the journal starts over, so startup only
+ * ever replays a bounded journal into the table and loads nobody into memory.
+ *
+ * <p>Journal and slots hold the same length-prefixed, CRC-checked records:
+ * {@code [int length][int id][float x][float y][byte shape][short nameLength][name utf-8][int crc]},
+ * in a slot followed by zeros; an empty slot is all zeros, and slot 0 holds the table's header.
+ * A torn record at the end of the journal (crash mid-write) is dropped on replay.
+ * A journal record with shape {@value #REMOVED} empties the player's slot, e.g. after it was
+ * handed to another zone server.
+ *
+ * <p>{@code <name>.snapshot} and {@code <name>.json} of earlier versions are moved into the table on load.
+ */
+public class PlayerStore {
+    private static final int TABLE_MAGIC = 0x504C5442;    // "PLTB"
+    private static final int SNAPSHOT_MAGIC = 0x504C534E; // "PLSN", before the table
+    private static final int JOURNAL_MAGIC = 0x504C4A52;  // "PLJR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_OVERHEAD = 4 + 4 + 4 + 4 + 1 + 2 + 4; // length, id, x, y, shape, nameLength, crc
+    static final int SLOT_BYTES = 128;
+    private static final int MAX_NAME_BYTES = SLOT_BYTES - RECORD_OVERHEAD; // 32 characters take at most 96
+    private static final int SCAN_SLOTS = 512; // per read while scanning the table
+    private static final int REMOVED = -1;
+    private static final int CLOSE_ATTEMPTS = 3; // writes tried by close() before it gives up
+
+    private final File tableFile;
+    private final File journalFile;
+    private final File legacySnapshotFile;
+    private final File legacyFile;
+    private final long flushIntervalMs;
+    private final int dirtyThreshold;
+    private final long compactBytes;
+
+    // Simulation thread: dirty ids, the ones among them to remove, the ids of the batch being
+    // written, record encoding and slot reads
+    private IntSet dirty = new IntSet();
+    private final IntSet removals = new IntSet();
+    private IntSet inFlight = new IntSet();
+    private final CRC32 crc = new CRC32();
+    private final ServerMain.Player removed = new ServerMain.Player(0, null, -1); // tombstone record
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(SLOT_BYTES);
+    // Handed to the flusher thread once encoded; writing says who owns it
+    private ByteBuffer journalBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final ByteBuffer slotBuffer = ByteBuffer.allocateDirect(SLOT_BYTES); // flusher thread, or load
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private FileChannel table;
+    private FileChannel journal;
+    private ScheduledExecutorService flusher;
+    private int registered;
+
+    // set by start(), owned by the simulation thread
+    private PlayerRegistry players;
+    private Executor simulation;
+    private boolean collectQueued;
+
+    public PlayerStore(String name, long flushIntervalMs, int dirtyThreshold, long compactBytes) {
+        this.tableFile = new File(name + ".players");
+        this.journalFile = new File(name + ".journal");
+        this.legacySnapshotFile = new File(name + ".snapshot");
+        this.legacyFile = new File(name + ".json");
+        this.flushIntervalMs = flushIntervalMs;
+        this.dirtyThreshold = dirtyThreshold;
+        this.compactBytes = compactBytes;
+    }
+
+    // ---- Load ----
+    /**
+     * Opens the table, moves older files into it, replays the journal into it and opens the
+     * journal for appending. Returns how many players are registered; none are read.
+     */
+    public int load() throws IOException {
+        long start = System.nanoTime();
+        boolean created = !tableFile.exists();
+        table = FileChannel.open(tableFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (table.size() < HEADER_SIZE) {
+            header.putInt(TABLE_MAGIC).putInt(VERSION).flip();
+            table.write(header, 0);
+        } else {
+            table.read(header, 0);
+            header.flip();
+            if (header.getInt() != TABLE_MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Unrecognized player file: " + tableFile);
+            }
+        }
+
+        File migrated = null;
+        if (legacySnapshotFile.exists()) {
+            readFile(legacySnapshotFile, SNAPSHOT_MAGIC, this::writeSlot);
+            migrated = legacySnapshotFile;
+        } else if (created && legacyFile.exists() && !journalFile.exists()) {
+            loadLegacyJson(this::writeSlot);
+            migrated = legacyFile;
+        }
+
+        journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (journal.size() >= HEADER_SIZE) readFile(journalFile, JOURNAL_MAGIC, this::writeSlot);
+        // everything is in the table now; a torn tail, if any, goes with the rest
+        table.force(true);
+        resetJournal();
+        if (migrated != null) {
+            Files.deleteIfExists(legacySnapshotFile.toPath());
+            System.out.println("Migrated " + migrated.getName() + " to " + tableFile.getName());
+        }
+
+        registered = 0;
+        ids(id -> registered++);
+        System.out.println("Opened " + registered + " players in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return registered;
+    }
+
+    /** Before {@link #start}: stores {@code p} as it is, e.g. a recorded registry for {@link Replay}. */
+    public void put(ServerMain.Player p) throws IOException {
+        if (read(p.id) == null) registered++;
+        writeSlot(p);
+    }
+
+    /** Hands {@code each} every intact record of the file, up to the first one that isn't. */
+    private void readFile(File file, int magic, Consumer<ServerMain.Player> each) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) return;
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != magic || buf.getInt() != VERSION) {
+                throw new IOException("Unrecognized player file: " + file);
+            }
+
+            while (buf.remaining() >= 4) {
+                int recordStart = buf.position();
+                int length = buf.getInt();
+                if (length < RECORD_OVERHEAD - 8 || buf.remaining() < length + 4) {
+                    buf.position(recordStart);
+                    break;
+                }
+                ServerMain.Player p = decode(buf, length);
+                if (p == null) {
+                    buf.position(recordStart);
+                    break;
+                }
+                each.accept(p); // later records win
+            }
+        }
+    }
+
+    private ServerMain.Player decode(ByteBuffer buf, int length) {
+        int payloadStart = buf.position();
+        crc.reset();
+        ByteBuffer payload = buf.duplicate();
+        payload.limit(payloadStart + length);
+        crc.update(payload);
+        buf.position(payloadStart + length);
+        if ((int) crc.getValue() != buf.getInt()) return null;
+
+        buf.position(payloadStart);
+        ServerMain.Player p = new ServerMain.Player();
+        p.id = buf.getInt();
+        p.x = buf.getFloat();
+        p.y = buf.getFloat();
+        p.shape = buf.get();
+        int nameLength = buf.getShort();
+        if (nameLength >= 0) {
+            byte[] name = new byte[nameLength];
+            buf.get(name);
+            p.name = new String(name, StandardCharsets.UTF_8);
+        }
+        p.connectionId = -1; // nobody is connected to a stored player
+        buf.position(payloadStart + length + 4);
+        return p;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadLegacyJson(Consumer<ServerMain.Player> each) {
+        try {
+            HashMap<String, ServerMain.Player> raw = new Json().fromJson(HashMap.class, ServerMain.Player.class, new FileHandle(legacyFile));
+            if (raw != null) { // fix: check for null
+                for (String key : raw.keySet()) {
+                    ServerMain.Player p = raw.get(key);
+                    p.id = Integer.parseInt(key);
+                    each.accept(p);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ---- Table ----
+    /**
+     * Simulation thread: the stored player {@code id} as a new object, or null if there is none.
+     * Null too while a removal of it is still on its way to the table.
+     */
+    public ServerMain.Player read(int id) {
+        if (id <= 0 || !isClean(id)) return null;
+        try {
+            readBuffer.clear();
+            long position = (long) id * SLOT_BYTES;
+            while (readBuffer.hasRemaining()) {
+                if (table.read(readBuffer, position + readBuffer.position()) < 0) return null;
+            }
+            readBuffer.flip();
+            int length = readBuffer.getInt();
+            if (length < RECORD_OVERHEAD - 8 || length > SLOT_BYTES - 8) return null;
+            ServerMain.Player p = decode(readBuffer, length);
+            return p != null && p.id == id && p.shape != REMOVED ? p : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Whether what is stored for {@code id} is current: not dirty, and not in a batch still being written. */
+    boolean isClean(int id) {
+        return !dirty.contains(id) && !(writing.get() && inFlight.contains(id));
+    }
+
+    /** Every id with a stored player, in order. Reads the slots as they are; see {@link #isClean}. */
+    public void ids(IntConsumer each) throws IOException {
+        scan(buf -> {
+            if (buf.getInt(buf.position()) != 0) each.accept(buf.getInt(buf.position() + 4));
+        });
+    }
+
+    /** Before {@link #start}: every stored player, in id order. */
+    public void forEach(Consumer<ServerMain.Player> each) throws IOException {
+        scan(buf -> {
+            int length = buf.getInt();
+            if (length < RECORD_OVERHEAD - 8 || length > SLOT_BYTES - 8) return;
+            ServerMain.Player p = decode(buf, length);
+            if (p != null) each.accept(p);
+        });
+    }
+
+    /** The highest id the table has a slot for; ids above it were never stored here. */
+    public int maxId() throws IOException {
+        return (int) Math.max(0, table.size() / SLOT_BYTES - 1);
+    }
+
+    /** Registered players as of {@link #load} and {@link #put}; the registry keeps count after that. */
+    public int registered() {
+        return registered;
+    }
+
+    /** Hands {@code each} every slot after the header, positioned at its start. */
+    private void scan(Consumer<ByteBuffer> each) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(SCAN_SLOTS * SLOT_BYTES);
+        long end = table.size() / SLOT_BYTES * SLOT_BYTES;
+        for (long position = SLOT_BYTES; position < end; ) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - position));
+            while (buf.hasRemaining() && table.read(buf, position + buf.position()) >= 0) {
+            }
+            int filled = buf.position();
+            for (int slot = 0; slot + SLOT_BYTES <= filled; slot += SLOT_BYTES) {
+                buf.limit(slot + SLOT_BYTES).position(slot);
+                each.accept(buf);
+                buf.limit(buf.capacity());
+            }
+            position += buf.capacity();
+        }
+    }
+
+    /** Load or {@link #put}: writes one player straight into its slot, or empties it. */
+    private void writeSlot(ServerMain.Player p) {
+        ByteBuffer record = encode(ByteBuffer.allocate(SLOT_BYTES), p);
+        record.flip();
+        try {
+            writeSlot(p.id, record, p.shape == REMOVED);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Copies the record at {@code record}'s position into slot {@code id}, followed by zeros. */
+    private void writeSlot(int id, ByteBuffer record, boolean remove) throws IOException {
+        slotBuffer.clear();
+        if (!remove) slotBuffer.put(record);
+        while (slotBuffer.hasRemaining()) slotBuffer.put((byte) 0);
+        slotBuffer.flip();
+        long position = (long) id * SLOT_BYTES;
+        while (slotBuffer.hasRemaining()) table.write(slotBuffer, position + slotBuffer.position());
+    }
+
+    // ---- Write-behind ----
+    /**
+     * Starts the background flusher. {@code players} belongs to the simulation thread, so
+     * records are always encoded there (via {@code simulation}) and only the finished
+     * buffers are handed to the flusher thread for writing.
+     */
+    public void start(Executor simulation, PlayerRegistry players) {
+        this.players = players;
+        this.simulation = simulation;
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "PlayerStoreFlush");
+            t.setDaemon(true); // the shutdown hook does the final flush
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            // a failed write keeps its buffer and is retried before anything new is collected
+            if (writing.get()) writeJournalQuietly();
+            else simulation.execute(this::collect);
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Simulation thread only. {@code id} changed and is written as the registry has it then; mark
+     * it before it goes into the registry's cache, which only keeps players that aren't stored yet.
+     */
+    public void markDirty(int id) {
+        removals.remove(id);
+        mark(id);
+    }
+
+    /** Simulation thread only. {@code id} is no longer registered here, e.g. handed to another zone: empties its slot. */
+    public void markRemoved(int id) {
+        removals.add(id);
+        mark(id);
+    }
+
+    private void mark(int id) {
+        dirty.add(id);
+        // not right away: the caller may not have put the player where the registry finds it yet
+        if (dirty.size >= dirtyThreshold && !collectQueued) {
+            collectQueued = true;
+            simulation.execute(this::collect);
+        }
+    }
+
+    /** Simulation thread: encodes the dirty players and hands them to the flusher. */
+    private void collect() {
+        collectQueued = false;
+        if (encodeDirty()) flusher.execute(this::writeJournalQuietly);
+    }
+
+    /** Encodes every dirty player into {@link #journalBuffer}, unless the previous batch is still being written. */
+    private boolean encodeDirty() {
+        if (dirty.isEmpty() || writing.get()) return false;
+        journalBuffer.clear();
+        for (IntSet.IntSetIterator it = dirty.iterator(); it.hasNext; ) {
+            int id = it.next();
+            ServerMain.Player p;
+            if (removals.contains(id)) {
+                removed.id = id;
+                removed.shape = REMOVED;
+                p = removed;
+            } else if ((p = players.resident(id)) == null) {
+                // the cache keeps dirty players, so this is a bug; what is stored stays
+                System.out.println("⚠️ Dirty player " + id + " is not in memory, not saved");
+                continue;
+            }
+            journalBuffer = encode(journalBuffer, p);
+        }
+        removals.clear();
+        // in flight until the flusher is done with them, see isClean()
+        IntSet batch = dirty;
+        dirty = inFlight;
+        dirty.clear();
+        inFlight = batch;
+        journalBuffer.flip();
+        writing.set(true); // only now, the flusher retries whatever it finds set
+        return true;
+    }
+
+    private void writeJournalQuietly() {
+        try {
+            writeJournal();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Flusher thread: appends {@link #journalBuffer}, copies its records into their slots, and
+     * once the journal got too big forces the table and starts the journal over.
+     */
+    private void writeJournal() throws IOException {
+        // a retry already wrote the batch this was queued for, and the next one may be encoding
+        if (!writing.get()) return;
+        long start = System.nanoTime();
+        long end = journal.position();
+        try {
+            int bytes = journalBuffer.remaining();
+            while (journalBuffer.hasRemaining()) journal.write(journalBuffer);
+            journal.force(false);
+            Metrics.JOURNAL_BYTES.add(bytes);
+            Metrics.JOURNAL_WRITE.record(System.nanoTime() - start);
+        } catch (IOException e) {
+            // don't leave a half-written record in front of the next append
+            journal.truncate(end);
+            journal.position(end);
+            journalBuffer.rewind();
+            throw e;
+        }
+        // the journal has them, so a crash while the slots are written is repaired on load
+        journalBuffer.rewind();
+        ByteBuffer record = journalBuffer.duplicate();
+        while (journalBuffer.remaining() >= 4) {
+            int at = journalBuffer.position();
+            int length = journalBuffer.getInt(at);
+            record.limit(at + 4 + length + 4).position(at);
+            writeSlot(journalBuffer.getInt(at + 4), record, journalBuffer.get(at + 16) == REMOVED);
+            journalBuffer.position(at + 4 + length + 4);
+        }
+        writing.set(false);
+
+        if (journal.size() >= compactBytes) compact();
+    }
+
+    /** Flusher thread: everything in the journal is in the table, so once that is on disk the journal can go. */
+    private void compact() {
+        long start = System.nanoTime();
+        try {
+            table.force(false);
+            resetJournal();
+            Metrics.COMPACTION.record(System.nanoTime() - start);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void resetJournal() throws IOException {
+        journal.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(JOURNAL_MAGIC).putInt(VERSION);
+        header.flip();
+        journal.position(0);
+        while (header.hasRemaining()) journal.write(header);
+        journal.force(true);
+    }
+
+    /** Appends one record to {@code buf}, returning a bigger copy if it didn't fit. */
+    private ByteBuffer encode(ByteBuffer buf, ServerMain.Player p) {
+        byte[] name = p.name == null ? null : p.name.getBytes(StandardCharsets.UTF_8);
+        int nameLength = name == null ? 0 : Math.min(name.length, MAX_NAME_BYTES);
+        // a cut name must not end in the middle of a character
+        while (name != null && nameLength < name.length && nameLength > 0 && (name[nameLength] & 0xC0) == 0x80) nameLength--;
+        buf = ensureCapacity(buf, RECORD_OVERHEAD + nameLength);
+
+        int lengthAt = buf.position();
+        buf.putInt(0); // patched below
+        int payloadStart = buf.position();
+        buf.putInt(p.id);
+        buf.putFloat(p.x);
+        buf.putFloat(p.y);
+        buf.put((byte) p.shape);
+        buf.putShort((short) (name == null ? -1 : nameLength));
+        if (name != null) buf.put(name, 0, nameLength);
+        int payloadEnd = buf.position();
+        buf.putInt(lengthAt, payloadEnd - payloadStart);
+
+        crc.reset();
+        ByteBuffer payload = buf.duplicate();
+        payload.position(payloadStart).limit(payloadEnd);
+        crc.update(payload);
+        buf.putInt((int) crc.getValue());
+        return buf;
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buf, int bytes) {
+        if (buf.remaining() >= bytes) return buf;
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(buf.capacity() * 2, buf.position() + bytes));
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+
+    /** Stops the flusher and forces a final write. Call after the simulation thread has stopped. */
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (journal == null) return;
+
+        // the simulation thread is gone, so its dirty set is ours now: the batch a failed write
+        // left behind first, then the rest
+        for (int attempt = 0; attempt < CLOSE_ATTEMPTS && (writing.get() || !dirty.isEmpty()); attempt++) {
+            if (writing.get() || encodeDirty()) writeJournalQuietly();
+        }
+        if (writing.get() || !dirty.isEmpty()) {
+            IntSet lost = new IntSet();
+            if (writing.get()) lost.addAll(inFlight);
+            lost.addAll(dirty);
+            System.out.println("❌ Could not save " + lost.size + " players, their changes since the last save are lost: " + lost);
+        }
+        try {
+            table.force(true);
+            journal.close();
+            table.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
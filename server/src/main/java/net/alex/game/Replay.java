@@ -0,0 +1,293 @@
+package net.alex.game;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntMap;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import net.alex.game.network.Network;
+import net.alex.game.network.Transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Runs a {@link PacketRecorder} recording through a fresh {@link ServerWorld} as fast as it goes:
+ * the recorded registry is loaded, and before every recorded tick the packets that arrived ahead
+ * of it are handed to the same {@link ServerMain.Handler} the server uses. What the world sends
+ * is compared with what was recorded, connection by connection, which makes a recording a
+ * regression test; the tick timings make it a profiling workload.
+ *
+ * <pre>
+ * java -Drecord=session.rec net.alex.game.ServerMain      record, Ctrl+C to stop
+ * java net.alex.game.Replay session.rec                    replay with the same -D settings
+ * </pre>
+ *
+ * Join state chunks are left out of the comparison: how many go out per tick depends on the
+ * TCP backlog at the time, which a replay doesn't have. For profiling, -DreplayCompare=false
+ * skips the comparison and with it encoding every packet again.
+ */
+public class Replay {
+    private static final int SHOWN_MISMATCHES = 10;
+    private static final boolean COMPARE = Boolean.parseBoolean(System.getProperty("replayCompare", "true"));
+
+    private final Reader reader;
+    private final Kryo kryo = new Kryo(); // decodes recorded packets on the replay thread
+    private final int fractionBits;
+    private final ThreadLocal<Kryo> encoders;
+    private final ThreadLocal<Output> outputs = ThreadLocal.withInitial(() -> new Output(4096, -1));
+
+    private ServerWorld world;
+    private ServerMain.Handler handler;
+    private final IntMap<ReplayLink> links = new IntMap<>();
+    private final Array<Record> pending = new Array<>();
+
+    // Compared outbound packets; guarded by this, workers compare too
+    private long matched, mismatched, missing, extra;
+    private int tick;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: Replay <recording>");
+            return;
+        }
+        new Replay(new File(args[0])).run();
+        System.exit(0);
+    }
+
+    Replay(File file) throws IOException {
+        reader = new Reader(file);
+        fractionBits = reader.fractionBits;
+        kryo.setReferences(false);
+        Network.register(kryo, fractionBits);
+        encoders = ThreadLocal.withInitial(() -> {
+            Kryo k = new Kryo();
+            k.setReferences(false);
+            Network.register(k, fractionBits);
+            return k;
+        });
+        if (reader.tickRate != ServerMain.TICK_RATE) {
+            System.out.println("⚠️ Recorded at " + reader.tickRate + " Hz, replaying at -DtickRate=" + ServerMain.TICK_RATE);
+        }
+    }
+
+    void run() throws Exception {
+        File dir = Files.createTempDirectory("replay").toFile();
+        PlayerStore store = new PlayerStore(new File(dir, "players").getPath(), Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        store.load();
+
+        // === Registry, then whatever came before the first tick ===
+        Record r = reader.next();
+        while (r != null && r.kind == PacketRecorder.PLAYER) {
+            Network.PlayerTransfer state = (Network.PlayerTransfer) decode(r);
+            ServerMain.Player p = new ServerMain.Player(state.id, state.name, -1);
+            p.x = state.x;
+            p.y = state.y;
+            p.shape = state.shape;
+            store.put(p);
+            r = reader.next();
+        }
+        PlayerRegistry players = new PlayerRegistry(store, ServerMain.PLAYER_CACHE_SIZE);
+        world = ServerMain.newWorld(store, players);
+        store.start(world::submit, players);
+        handler = new ServerMain.Handler(world, packet -> Network.free(kryo, packet));
+        System.out.println("▶️ Replaying " + reader.file + " from " + players.registered() + " players");
+
+        while (r != null && r.kind != PacketRecorder.TICK) {
+            feed(r);
+            r = reader.next();
+        }
+
+        // === One tick at a time: what it sent is recorded after its marker, up to the next one ===
+        long start = System.nanoTime();
+        long recordedNanos = 0;
+        while (r != null) {
+            tick = r.connection;
+            pending.clear();
+            Record next;
+            while ((next = reader.next()) != null && next.kind != PacketRecorder.TICK) {
+                if (next.kind == PacketRecorder.OUT) {
+                    if (COMPARE) expect(next);
+                } else {
+                    pending.add(next);
+                }
+                recordedNanos = next.nanos;
+            }
+
+            world.tick();
+            for (ReplayLink link : links.values()) {
+                missing += link.expected.size();
+                link.expected.clear();
+            }
+            for (Record p : pending) feed(p);
+            r = next;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        store.close();
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+        report(elapsed, recordedNanos);
+    }
+
+    private void report(long elapsedNanos, long recordedNanos) {
+        System.out.println(String.format(Locale.ROOT,
+                "🏁 %d ticks in %.2f s (%.0f ticks/s, %.1fx real time) | tick µs p50 %d p99 %d max %d",
+                tick, elapsedNanos / 1e9, tick / (elapsedNanos / 1e9), recordedNanos / (double) Math.max(1, elapsedNanos),
+                Metrics.TICK.quantile(0.5) / 1000, Metrics.TICK.quantile(0.99) / 1000, Metrics.TICK.quantile(1) / 1000));
+        if (!COMPARE) return;
+        System.out.println((mismatched + missing + extra == 0 ? "✅" : "❌") + " Packets out: " + matched + " as recorded, "
+                + mismatched + " different, " + missing + " missing, " + extra + " extra");
+    }
+
+    // ---- Records ----
+    private Object decode(Record r) {
+        return kryo.readClassAndObject(new Input(r.packet));
+    }
+
+    private void feed(Record r) {
+        switch (r.kind) {
+            case PacketRecorder.CONNECTED: {
+                ReplayLink link = new ReplayLink(r.connection);
+                links.put(r.connection, link);
+                handler.connected(link);
+                break;
+            }
+            case PacketRecorder.DISCONNECTED: {
+                ReplayLink link = links.remove(r.connection);
+                if (link == null) break;
+                link.connected = false;
+                handler.disconnected(link);
+                break;
+            }
+            case PacketRecorder.IN: {
+                ReplayLink link = links.get(r.connection);
+                if (link != null) handler.received(link, decode(r));
+                break;
+            }
+        }
+    }
+
+    private void expect(Record r) {
+        ReplayLink link = links.get(r.connection);
+        if (link == null) return;
+        // the class comes first, so the join state chunks can be skipped without decoding them;
+        // compressed ones have to be inflated to tell
+        Class<?> type = kryo.readClass(new Input(r.packet)).getType();
+        if (type == Network.Compressed.class) {
+            Object packet = decode(r);
+            Network.free(kryo, packet);
+            if (packet instanceof Network.WorldState) return;
+        }
+        if (type == Network.WorldState.class) return;
+        link.expected.add(r.packet);
+    }
+
+    /** Simulation thread or the worker that has the connection's view this tick. */
+    private void compare(ReplayLink link, Object packet) {
+        if (!COMPARE || Network.Compressed.unwrap(packet) instanceof Network.WorldState) return;
+        Output output = outputs.get();
+        output.reset();
+        encoders.get().writeClassAndObject(output, packet);
+        byte[] expected = link.expected.poll();
+        boolean same = expected != null && Arrays.equals(expected, 0, expected.length, output.getBuffer(), 0, output.position());
+
+        synchronized (this) {
+            if (same) {
+                matched++;
+                return;
+            }
+            if (expected == null) extra++;
+            else mismatched++;
+            if (mismatched + extra > SHOWN_MISMATCHES) return;
+        }
+        System.out.println("⚠️ Tick " + tick + ", connection " + link.id + ": " + packet.getClass().getSimpleName()
+                + (expected == null ? " was not sent" : " differs from the recording"));
+    }
+
+    private class ReplayLink implements Transport.Link {
+        final int id;
+        final ArrayDeque<byte[]> expected = new ArrayDeque<>();
+        volatile boolean connected = true;
+
+        ReplayLink(int id) {
+            this.id = id;
+        }
+
+        @Override public int id() { return id; }
+        @Override public void sendReliable(Object packet) { compare(this, packet); }
+        @Override public void sendUnreliable(Object packet) { compare(this, packet); }
+        @Override public boolean isConnected() { return connected; }
+        @Override public int queuedBytes() { return 0; }
+        @Override public int rtt() { return 0; }
+        @Override public void updateRtt() {}
+        @Override public void close() { connected = false; }
+    }
+
+    // ---- Reading ----
+    private static class Record {
+        byte kind;
+        long nanos;
+        int connection;
+        byte[] packet;
+    }
+
+    /** Reads a recording one mapped chunk at a time. */
+    private static class Reader {
+        final File file;
+        final int fractionBits, tickRate;
+        private final FileChannel channel;
+        private final long size;
+        private final int chunkBytes;
+        private MappedByteBuffer chunk;
+        private long chunkStart;
+
+        Reader(File file) throws IOException {
+            this.file = file;
+            channel = new RandomAccessFile(file, "r").getChannel();
+            size = channel.size();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, PacketRecorder.HEADER_BYTES));
+            if (size < PacketRecorder.HEADER_BYTES || header.getInt() != PacketRecorder.MAGIC) throw new IOException(file + " is not a recording");
+            int version = header.getInt();
+            if (version != PacketRecorder.VERSION) throw new IOException(file + " is recording version " + version);
+            chunkBytes = header.getInt();
+            fractionBits = header.getInt();
+            tickRate = header.getInt();
+            map(0);
+            chunk.position(PacketRecorder.HEADER_BYTES);
+        }
+
+        private void map(long offset) throws IOException {
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(chunkBytes, size - offset));
+            chunkStart = offset;
+        }
+
+        /** The next record, or null at the end. */
+        Record next() throws IOException {
+            while (true) {
+                int length = chunk.remaining() >= 4 ? chunk.getInt() : 0;
+                if (length > 0) {
+                    Record r = new Record();
+                    r.kind = chunk.get();
+                    r.nanos = chunk.getLong();
+                    r.connection = chunk.getInt();
+                    r.packet = new byte[length - PacketRecorder.RECORD_HEADER];
+                    chunk.get(r.packet);
+                    return r;
+                }
+                // rest of this chunk unused: on to the next one, if any
+                long next = chunkStart + chunkBytes;
+                if (next >= size) return null;
+                map(next);
+            }
+        }
+    }
+}
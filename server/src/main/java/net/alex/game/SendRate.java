@@ -0,0 +1,99 @@
+package net.alex.game;
+
+import net.alex.game.network.Transport;
+
+/**
+ * Congestion control for one connection's snapshots. Every client starts with a snapshot per
+ * tick and no limit on its size; what comes back from the link decides whether that holds:
+ * <ul>
+ *   <li>loss: snapshots sent that the client never acknowledged,</li>
+ *   <li>delay: the round trip growing past the lowest one seen, i.e. packets queueing somewhere,</li>
+ *   <li>backlog: how full the link's write buffer is, reliable packets it could not send yet.</li>
+ * </ul>
+ * After every {@link #WINDOW} snapshots, a congested window halves the rate (more ticks between
+ * snapshots, up to -DmaxSnapshotInterval) and the number of entity updates a snapshot may carry;
+ * a clean one gives back half the budget again, then one tick of the interval. Entities over the
+ * budget keep what the client has and go out in a later snapshot, see {@link ClientView#encode}.
+ *
+ * <p>Independently of the windows, a connection whose write buffer is three quarters full is
+ * skipped for the tick, events included, so it drains instead of overflowing and being closed.
+ * Skipped ticks cost nothing later: the next events and delta are against what the client has.
+ *
+ * <p>Touched by the simulation thread, or during a tick by the worker whose partition has the view.
+ */
+public class SendRate {
+    // Slowest rate, as ticks between snapshots: 6 is 5 per second at 30 Hz
+    static final int MAX_INTERVAL = Integer.getInteger("maxSnapshotInterval", 6);
+    // Fewest entity updates a snapshot may carry; the client's own entity always goes out
+    static final int MIN_BUDGET = Integer.getInteger("minSnapshotUpdates", 16);
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    static final int WINDOW = 16; // snapshots per decision
+
+    private static final float MAX_LOSS = 0.1f;
+    // Of the write buffer, at the end of a window; join state alone fills up to half of it
+    private static final float MAX_BACKLOG = 0.25f;
+    private static final float PAUSE_BACKLOG = 0.75f;
+    private static final int MAX_QUEUE_DELAY_MS = 100; // round trip above the lowest one
+
+    private final int writeBufferSize;
+
+    int interval = 1;
+    int budget = UNLIMITED;
+    private int lastSent = -1; // tick
+    private int minRtt = Integer.MAX_VALUE;
+
+    // The current window
+    private int sent, acked, peakChanged;
+
+    SendRate(int writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    /** Whether the view gets its events and a snapshot this tick. */
+    boolean due(int tick, Transport.Link link) {
+        if (lastSent >= 0 && tick - lastSent < interval) return false;
+        if (link.queuedBytes() > writeBufferSize * PAUSE_BACKLOG) {
+            Metrics.SEND_PAUSED.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /** Ticks since the previous snapshot, as the one for {@code tick} tells the client. */
+    int since(int tick) {
+        return lastSent < 0 ? 1 : tick - lastSent;
+    }
+
+    /**
+     * A snapshot for {@code tick} went out with {@code changed} entity updates; ends the window
+     * after {@link #WINDOW}. While join state is streaming, the backlog is that and not congestion.
+     */
+    void sent(int tick, int changed, Transport.Link link, boolean joining) {
+        lastSent = tick;
+        peakChanged = Math.max(peakChanged, changed);
+        if (++sent < WINDOW) return;
+
+        int rtt = link.rtt();
+        if (rtt > 0) minRtt = Math.min(minRtt, rtt);
+        boolean congested = acked < sent * (1 - MAX_LOSS)
+                || !joining && link.queuedBytes() > writeBufferSize * MAX_BACKLOG
+                || rtt > 0 && rtt - minRtt > MAX_QUEUE_DELAY_MS;
+        if (congested) {
+            interval = Math.min(MAX_INTERVAL, interval * 2);
+            budget = Math.max(MIN_BUDGET, Math.min(budget, peakChanged) / 2);
+            Metrics.SEND_RATE_CUTS.increment();
+        } else if (budget != UNLIMITED) {
+            budget += budget / 2;
+            if (budget > peakChanged) budget = UNLIMITED;
+        } else if (interval > 1) {
+            interval--;
+        }
+        sent = acked = peakChanged = 0;
+        Metrics.SNAPSHOT_INTERVAL.record(interval);
+    }
+
+    /** The client acknowledged a snapshot newer than any before. */
+    void acked() {
+        acked++;
+    }
+}
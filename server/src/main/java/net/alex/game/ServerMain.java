@@ -1,167 +1,245 @@
 package net.alex.game;
 
-import com.badlogic.gdx.files.FileHandle;
-import com.badlogic.gdx.utils.Json;
-import com.badlogic.gdx.utils.JsonWriter;
-import com.esotericsoftware.kryonet.*;
+import com.badlogic.ashley.core.Component;
 import net.alex.game.network.Network;
+import net.alex.game.network.ReliableUdpTransport;
+import net.alex.game.network.Transport;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class ServerMain {
-    private static HashMap<Integer, Player> players = new HashMap<>();
-    private static Server server;
-    private static int nextPlayerId = 1; // permanent IDs, not tied to connection IDs
-    private static final String SAVE_FILE = "players.json";
+    private static Transport.Server server;
+    private static ServerWorld world;
+
+    // ---- Zones ----
+    // Part of a world split between servers when -Dzones is set (see ZoneMap), as zone -Dzone
+    private static final ZoneMap ZONES = ZoneMap.fromSystemProperties();
+    private static final int ZONE = Integer.getInteger("zone", 0);
+    private static final String COORDINATOR_HOST = System.getProperty("coordinator", "127.0.0.1");
+    private static ZoneLink zoneLink;
+
+    private static final String SAVE_FILE = ZONES == null ? "players" : "players-zone" + ZONE; // .players + .journal
+
+    // ---- Persistence ----
+    // Flush at least every saveInterval ms, or sooner once saveThreshold players changed
+    private static final long SAVE_INTERVAL_MS = Long.getLong("saveInterval", 5000);
+    private static final int SAVE_THRESHOLD = Integer.getInteger("saveThreshold", 256);
+    // Force the player table to disk and start the journal over once it grows past this many bytes
+    private static final long COMPACT_BYTES = Long.getLong("journalCompactBytes", 16L * 1024 * 1024);
+    // Offline players kept in memory besides the online ones; the rest are read from disk when they return
+    static final int PLAYER_CACHE_SIZE = Integer.getInteger("playerCacheSize", 10000);
+    private static PlayerStore store;
+
+    // ---- Tick loop ----
+    // Simulation rate in Hz, e.g. -DtickRate=20 / 30 / 60
+    static final int TICK_RATE = Integer.getInteger("tickRate", 30);
+    // Clients only hear about players within this distance, e.g. -DaoiRadius=700
+    private static final float AOI_RADIUS = Float.parseFloat(System.getProperty("aoiRadius", "700"));
+    // Keep each snapshot datagram and join state chunk well below KryoNet's object buffer
+    private static final int MAX_UPDATES_PER_SNAPSHOT = 64;
+    // Per-connection TCP write buffer; join state chunks are only queued while it is less than half full
+    private static final int WRITE_BUFFER_SIZE = Integer.getInteger("writeBufferSize", 16384);
+    private static final int OBJECT_BUFFER_SIZE = 2048;
+    // KryoNet, or -Dtransport=loopback for clients in this JVM (e.g. LoadTest -Dembedded=true);
+    // -Dreliable=udp moves reliable packets off TCP, clients need the same setting
+    private static final Transport TRANSPORT = Transport.fromSystemProperties();
+    // Threads helping the simulation thread with per-client work, 0 = simulation thread only
+    private static final int WORKER_THREADS = Integer.getInteger("workerThreads",
+            Math.max(0, Runtime.getRuntime().availableProcessors() - 1));
+    // Input commands and acks waiting for the next tick; more are dropped (and counted)
+    private static final int INPUT_QUEUE_SIZE = Integer.getInteger("inputQueueSize", 65536);
+    // Join state and events from this many encoded bytes on are deflated for clients that can
+    // read it, which cuts join time on slow links; -Dcompression=none sends everything as it is
+    private static final int COMPRESSION = "none".equals(System.getProperty("compression", "deflate"))
+            ? Network.Compressed.NONE : Network.Compressed.DEFLATE;
+    private static final int COMPRESS_ABOVE = Integer.getInteger("compressAbove", 256);
+    private static ScheduledExecutorService ticker;
+    private static ExecutorService workers;
+
+    // ---- Metrics ----
+    // Plain-text metrics on http://127.0.0.1:<metricsPort>/metrics, -1 = JMX only
+    private static final int METRICS_PORT = Integer.getInteger("metricsPort", 9100);
+    private static final MetricsEndpoint metrics = new MetricsEndpoint();
+
+    // ---- Recording ----
+    // Every packet in and out to a memory-mapped file for Replay, e.g. -Drecord=session.rec; off by default
+    private static final String RECORD_FILE = System.getProperty("record");
+    private static final long RECORD_MAX_BYTES = Long.getLong("recordMaxBytes", 1L << 30);
+    private static PacketRecorder recorder;
 
     public static void main(String[] args) throws IOException {
-        // Load players from disk first
-        loadPlayers();
+        // Open the player table first; nobody is read until they connect
+        store = new PlayerStore(SAVE_FILE, SAVE_INTERVAL_MS, SAVE_THRESHOLD, COMPACT_BYTES);
+        store.load();
+        PlayerRegistry players = new PlayerRegistry(store, PLAYER_CACHE_SIZE);
+
+        world = newWorld(store, players);
+        store.start(world::submit, players);
+        if (ZONES != null) {
+            zoneLink = new ZoneLink(ZONES, ZONE, COORDINATOR_HOST);
+            world.setZone(zoneLink);
+        }
+        Transport.Listener listener = new Handler(world, packet -> server.free(packet));
+        if (RECORD_FILE != null) {
+            recorder = new PacketRecorder(new File(RECORD_FILE), RECORD_MAX_BYTES, TICK_RATE);
+            store.forEach(recorder::player);
+            listener = recorder.wrap(listener);
+            System.out.println("⏺️ Recording packets to " + RECORD_FILE);
+        }
+        server = TRANSPORT.newServer(WRITE_BUFFER_SIZE, OBJECT_BUFFER_SIZE, kryo -> {
+            Network.register(kryo);
+            Network.count(kryo, Metrics.TRAFFIC);
+        }, listener);
+        Metrics.addCollector(ServerMain::collectMetrics);
+        metrics.start(METRICS_PORT);
+
+        int tcpPort = ZONES == null ? Network.tcpPort : ZONES.tcpPort(ZONE);
+        int udpPort = ZONES == null ? Network.udpPort : ZONES.udpPort(ZONE);
+        server.bind(tcpPort, udpPort);
+        System.out.println("Server running on TCP:" + tcpPort + " UDP:" + udpPort
+                + (ZONES == null ? "" : " as zone " + ZONE + " of " + ZONES.count()));
 
-        server = new Server();
-        Network.register(server);
+        startTickLoop();
+        if (zoneLink != null) zoneLink.start(world);
 
-        server.addListener(new Listener() {
-            @Override
-            public void connected(Connection c) {
-                System.out.println("New connection: " + c.getID());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            ticker.shutdown();
+            try {
+                ticker.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            if (zoneLink != null) zoneLink.stop();
+            server.stop();
+            if (recorder != null) recorder.close();
+            metrics.stop();
+            store.close();
+            System.out.println("Saved players to " + SAVE_FILE + ".journal");
+        }, "ServerShutdown"));
+    }
 
-            @Override
-            public void disconnected(Connection c) {
-                for (Player p : players.values()) {
-                    if (p.connectionId == c.getID()) {
-                        p.connectionId = -1;
-                        System.out.println("Player " + p.name + " disconnected.");
-                        Network.PlayerLeft msg = new Network.PlayerLeft();
-                        msg.id = p.id;
-                        server.sendToAllTCP(msg);
-                        savePlayers();
-                        break;
-                    }
-                }
+    /** The world as configured by the system properties, also used by {@link Replay}. */
+    static ServerWorld newWorld(PlayerStore store, PlayerRegistry players) {
+        if (WORKER_THREADS > 0 && workers == null) {
+            workers = Executors.newFixedThreadPool(WORKER_THREADS, r -> {
+                Thread t = new Thread(r, "ServerWorker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        ServerWorld world = new ServerWorld(store, players, AOI_RADIUS, MAX_UPDATES_PER_SNAPSHOT, TICK_RATE,
+                workers, WORKER_THREADS + 1, INPUT_QUEUE_SIZE, WRITE_BUFFER_SIZE);
+        world.setCompression(COMPRESSION, COMPRESS_ABOVE);
+        return world;
+    }
+
+    // ---- Packets ----
+    /**
+     * Transport callbacks only turn packets into commands for the simulation thread.
+     * The per-tick ones are copied into the packet ring and their instances pooled again.
+     */
+    static class Handler implements Transport.Listener {
+        private final ServerWorld world;
+        private final Consumer<Object> free;
+
+        Handler(ServerWorld world, Consumer<Object> free) {
+            this.world = world;
+            this.free = free;
+        }
+
+        @Override
+        public void connected(Transport.Link c) {
+            System.out.println("New connection: " + c.id());
+        }
+
+        @Override
+        public void disconnected(Transport.Link c) {
+            int id = c.id();
+            world.submit(() -> world.disconnect(id));
+        }
+
+        @Override
+        public void received(Transport.Link c, Object object) {
+            long start = System.nanoTime();
+            try {
+                receive(c, object);
+            } finally {
+                Metrics.LISTENER.record(System.nanoTime() - start);
             }
+        }
 
-            @Override
-            public void received(Connection c, Object object) {
-                if (object instanceof Network.RegisterPlayer) {
-                    Network.RegisterPlayer reg = (Network.RegisterPlayer) object;
-
-                    Player player;
-                    boolean isNew = false;
-
-                    if (reg.id == 0 || !players.containsKey(reg.id)) {
-                        // === New player ===
-                        int newId = nextPlayerId++;
-                        player = new Player(newId, reg.name, c.getID());
-                        players.put(newId, player);
-                        isNew = true;
-
-                        System.out.println("Registered new: " + reg.name + " (" + newId + ")");
-                    } else {
-                        // === Returning player ===
-                        player = players.get(reg.id);
-                        player.connectionId = c.getID();
-                        player.name = reg.name;
-
-                        System.out.println("Reconnected: " + reg.name + " (" + reg.id + ")");
-                    }
-
-                    savePlayers();
-
-                    // === 1) Send back permanent ID first ===
-                    Network.AssignId assign = new Network.AssignId();
-                    assign.id = player.id;
-                    server.sendToTCP(c.getID(), assign);
-
-                    // === 2) Send full world state to just this client ===
-                    Network.WorldState world = new Network.WorldState();
-                    world.players = players.values().stream().map(p -> {
-                        Network.PlayerUpdate u = new Network.PlayerUpdate();
-                        u.id = p.id;
-                        u.x = p.x;
-                        u.y = p.y;
-                        u.shape = p.shape;
-                        return u;
-                    }).toArray(Network.PlayerUpdate[]::new);
-                    server.sendToTCP(c.getID(), world);
-
-                    // === 3) Announce join AFTER world state ===
-                    Network.PlayerJoined joined = new Network.PlayerJoined();
-                    joined.id = player.id;
-                    joined.name = player.name;
-                    server.sendToAllTCP(joined);
-                } else if (object instanceof Network.PlayerUpdate) {
-                    Network.PlayerUpdate update = (Network.PlayerUpdate) object;
-                    Player player = players.get(update.id);
-                    if (player != null) {
-                        player.x = update.x;
-                        player.y = update.y;
-                        player.shape = update.shape;
-                        savePlayers();
-                        // Broadcast to everyone (including sender, so states stay in sync)
-                        server.sendToAllUDP(update);
-                    }
+        private void receive(Transport.Link c, Object object) {
+            int id = c.id();
+            if (object instanceof Network.RegisterPlayer) {
+                Network.RegisterPlayer reg = (Network.RegisterPlayer) object;
+                world.submit(() -> world.register(c, reg));
+            } else if (object instanceof Network.InputBatch) {
+                // movement is server-authoritative: clients send inputs, never positions
+                Network.InputBatch batch = (Network.InputBatch) object;
+                for (int i = 0; i < batch.count; i++) {
+                    world.packets.offer(PacketRing.INPUT, id, batch.firstSequence + i, batch.inputs[i]);
                 }
+                free.accept(batch);
+            } else if (object instanceof Network.SnapshotAck) {
+                world.packets.offer(PacketRing.ACK, id, ((Network.SnapshotAck) object).tick, 0);
             }
-        });
+        }
+    }
 
-        server.bind(Network.tcpPort, Network.udpPort);
-        server.start();
-        System.out.println("Server running on TCP:" + Network.tcpPort + " UDP:" + Network.udpPort);
+    // ---- Tick loop ----
+    private static void startTickLoop() {
+        // this thread is the simulation thread: the only one that touches the world
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "ServerTick"));
+        long period = 1_000_000_000L / TICK_RATE;
+        ticker.scheduleAtFixedRate(() -> {
+            // an uncaught exception would silently cancel the schedule
+            try {
+                if (recorder != null) recorder.tick(world);
+                world.tick();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+        ticker.scheduleAtFixedRate(ServerMain::sampleConnections, 1, 1, TimeUnit.SECONDS);
+        System.out.println("Tick loop running at " + TICK_RATE + " Hz with " + WORKER_THREADS + " worker threads");
     }
 
-    // ---- Save/Load ----
-    private static void savePlayers() {
-        try {
-            Json json = new Json();
-            json.setOutputType(JsonWriter.OutputType.json);
-            json.setUsePrototypes(false);
-
-            FileHandle file = new FileHandle(new File(SAVE_FILE));
-
-            // 🔑 Always write a valid JSON object, even if empty
-            String pretty = (players == null || players.isEmpty())
-                    ? "{}"
-                    : json.prettyPrint(players);
-
-            file.writeString(pretty, false);
-            // Annoying haha
-            // System.out.println("Saved " + players.size() + " players to " + SAVE_FILE);
-        } catch (Exception e) {
-            e.printStackTrace();
+    // ---- Metrics ----
+    /** Once a second: records every connection's RTT and TCP backlog, and asks for a fresh RTT. */
+    private static void sampleConnections() {
+        for (Transport.Link c : server.links()) {
+            Metrics.RTT.record(c.rtt());
+            Metrics.TCP_QUEUE.record(c.queuedBytes());
+            c.updateRtt();
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private static void loadPlayers() {
-        try {
-            FileHandle file = new FileHandle(new File(SAVE_FILE));
-            if (file.exists()) {
-                Json json = new Json();
-                HashMap<String, Player> raw = json.fromJson(HashMap.class, Player.class, file);
-
-                players = new HashMap<>();
-                if (raw != null) { // fix: check for null
-                    for (String key : raw.keySet()) {
-                        players.put(Integer.parseInt(key), raw.get(key));
-                    }
-                }
-
-                int maxId = players.keySet().stream().mapToInt(i -> i).max().orElse(0);
-                nextPlayerId = maxId + 1;
-
-                System.out.println("Loaded " + players.size() + " players from " + SAVE_FILE);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static void collectMetrics(Map<String, Number> out) {
+        out.put("players_online", world.getOnlineCount());
+        out.put("players_registered", world.getRegisteredCount());
+        out.put("players_cached", world.getCachedCount());
+        out.put("input_queue_dropped_total", world.packets.getDropped());
+        if (TRANSPORT instanceof ReliableUdpTransport) out.put("reliable_udp_resent_total", ReliableUdpTransport.resent());
+        Transport.Link[] links = server.links();
+        out.put("connections", links.length);
+        for (Transport.Link c : links) {
+            out.put("connection_rtt_ms{connection=\"" + c.id() + "\"}", c.rtt());
+        }
+        for (Transport.Link c : links) {
+            out.put("connection_tcp_write_buffer_bytes{connection=\"" + c.id() + "\"}", c.queuedBytes());
         }
     }
 
     // ---- Player ----
-    public static class Player {
+    /** A registered player, and the main component of its {@link Simulation} entity. */
+    public static class Player implements Component {
         public int id;
         public int connectionId;
         public String name;
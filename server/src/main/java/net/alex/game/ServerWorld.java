@@ -0,0 +1,462 @@
+package net.alex.game;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntIntMap;
+import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.Sort;
+import net.alex.game.network.Network;
+import net.alex.game.network.PlayerInput;
+import net.alex.game.network.SnapshotFrame;
+import net.alex.game.network.Transport;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * All game state of the server, owned by the simulation thread.
+ * Network callbacks never touch it directly; they {@link #submit} commands that
+ * the simulation thread drains at the start of every {@link #tick}; the packets every
+ * client sends each tick go through the allocation-free {@link #packets} ring instead. The per-client
+ * part of a tick (AOI query, events, delta encoding, sending) is split into
+ * spatially grouped partitions that run on a worker pool.
+ *
+ * <p>Movement is simulated by the server alone: input commands are queued on the player's
+ * {@link Simulation} entity and applied in one fixed step per tick, before anything is sent.
+ * Only online players are entities; the others wait in the {@link PlayerRegistry}'s cache or on disk.
+ *
+ * <p>A joining client gets the online players around it as a stream of {@link Network.WorldState}
+ * chunks. Chunks are built once per grid cell and tick, and handed out only as fast as the
+ * connection's TCP write buffer drains. Chunks and events are deflated above a size threshold
+ * for clients that said in {@link Network.RegisterPlayer} that they can read it.
+ *
+ * <p>How often a client gets its events and snapshot, and how many entity updates a snapshot
+ * may carry, is up to its {@link SendRate}, which backs off when the link is congested.
+ *
+ * <p>As one zone of a larger world (see {@link ZoneLink}), players who walk past the zone's
+ * borders are frozen, handed to the neighbouring zone server and then sent over to it.
+ */
+public class ServerWorld {
+    private static final Comparator<ServerMain.Player> BY_ID = (a, b) -> Integer.compare(a.id, b.id);
+    private static final Comparator<ClientView> BY_CELL = (a, b) -> Long.compare(a.cell, b.cell);
+
+    private final PlayerStore store;
+    private final float aoiRadius;
+    private final int maxUpdatesPerSnapshot;
+    private final int tickRate;
+    private final float inputsPerTick, maxInputBurst;
+    private final int writeBufferSize, joinBacklogBytes;
+
+    // Lock-free multi-producer queue: transport and store threads in, simulation thread out
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    // Input commands and acks, same direction but without a lambda per packet
+    public final PacketRing packets;
+    private final PacketRing.Handler packetHandler = this::handlePacket;
+
+    private final PlayerRegistry players;
+    private final Simulation simulation;
+    private final IntMap<ClientView> views = new IntMap<>(); // by connection id
+    private int nextPlayerId; // permanent IDs, not tied to connection IDs
+    private int tick = 0;
+    private final long tickNanos;
+    private volatile int onlineCount, registeredCount, cachedCount;
+
+    private final SpatialGrid grid;
+    private final ExecutorService workers;
+    private final Partition[] partitions;
+    private final Array<ClientView> sortedViews = new Array<>(true, 64, ClientView.class);
+    private final Sort viewSort = new Sort();
+    private final ArrayList<Future<?>> running = new ArrayList<>();
+
+    // Join state chunks by grid cell, shared by everyone joining there during the same tick
+    private final LongMap<Array<Network.WorldState>> joinStates = new LongMap<>();
+    private final Array<ServerMain.Player> joinScratch = new Array<>(true, 64, ServerMain.Player.class);
+
+    // Codec for bulk packets to clients that can read it, and the encoded size it starts at
+    private int compression = Network.Compressed.NONE;
+    private int compressAbove;
+
+    // Zones: null when this server is the whole world; players being handed off, by the tick it started
+    private ZoneLink zone;
+    private final IntIntMap handingOff = new IntIntMap();
+
+    public ServerWorld(PlayerStore store, PlayerRegistry players, float aoiRadius,
+                       int maxUpdatesPerSnapshot, int tickRate, ExecutorService workers, int partitionCount,
+                       int packetCapacity, int writeBufferSize) {
+        this.store = store;
+        this.players = players;
+        this.aoiRadius = aoiRadius;
+        this.maxUpdatesPerSnapshot = maxUpdatesPerSnapshot;
+        this.tickRate = tickRate;
+        this.tickNanos = 1_000_000_000L / tickRate;
+        this.inputsPerTick = (float) PlayerInput.RATE / tickRate;
+        this.maxInputBurst = PlayerInput.RATE / 2f; // half a second of late commands
+        this.workers = workers;
+        this.grid = new SpatialGrid(aoiRadius);
+        this.partitions = new Partition[Math.max(1, partitionCount)];
+        for (int i = 0; i < partitions.length; i++) partitions[i] = new Partition();
+        this.packets = new PacketRing(packetCapacity);
+        this.writeBufferSize = writeBufferSize;
+        this.joinBacklogBytes = writeBufferSize / 2;
+        this.nextPlayerId = players.maxId() + 1;
+        this.simulation = new Simulation(tickRate, store::markDirty);
+        for (ServerMain.Player p : players.online()) simulation.add(p);
+    }
+
+    /** Thread-safe; the command runs on the simulation thread before the next tick. */
+    public void submit(Runnable command) {
+        commands.offer(command);
+    }
+
+    // Ends what the next tick takes from the queues, see barrier()
+    private static final Runnable BARRIER = () -> {};
+
+    /**
+     * Thread-safe, at most once per tick. The next tick only runs commands and packets queued
+     * before this call, the rest waits for the tick after. Lets {@link PacketRecorder} mark
+     * exactly where a tick began.
+     */
+    public void barrier() {
+        commands.offer(BARRIER);
+        packets.barrier(); // never dropped, its slot is kept free
+    }
+
+    public void setZone(ZoneLink zone) {
+        this.zone = zone;
+    }
+
+    /** Join state and events go out compressed with {@code codec} from {@code minBytes} on, to clients that agree. */
+    public void setCompression(int codec, int minBytes) {
+        this.compression = codec;
+        this.compressAbove = minBytes;
+    }
+
+    // ---- Commands ----
+    public void register(Transport.Link connection, Network.RegisterPlayer reg) {
+        if (views.containsKey(connection.id())) {
+            // one player per connection: a second one would stay online after the disconnect
+            System.out.println("Rejected a second registration on connection " + connection.id());
+            connection.close();
+            return;
+        }
+        ServerMain.Player player = reg.id == 0 ? null : players.get(reg.id);
+        if (zone != null && player == null) {
+            // ids are handed out by the coordinator, which sends players here only once this zone has them
+            System.out.println("Rejected unknown player " + reg.id + ", clients join through the coordinator");
+            connection.close();
+            return;
+        }
+        int connectionId = connection.id();
+        String name = reg.name == null ? "" : reg.name;
+        if (name.length() > Network.RegisterPlayer.MAX_NAME_LENGTH) {
+            name = name.substring(0, Network.RegisterPlayer.MAX_NAME_LENGTH);
+        }
+
+        if (player == null) {
+            // === New player ===
+            int newId = nextPlayerId++;
+            player = new ServerMain.Player(newId, name, connectionId);
+            players.add(player);
+
+            System.out.println("Registered new: " + name + " (" + newId + ")");
+        } else {
+            // === Returning player, from memory or disk, or logging in again from elsewhere ===
+            ClientView previous = player.connectionId == -1 ? null : views.remove(player.connectionId);
+            if (previous != null) {
+                // the old client's disconnect then finds no view and leaves the player alone
+                previous.connection.close();
+                simulation.remove(player.id); // re-added below, without the old client's commands
+            }
+            player.connectionId = connectionId;
+            player.name = name;
+            players.setOnline(player);
+
+            System.out.println("Reconnected: " + name + " (" + reg.id + ")");
+        }
+        simulation.add(player);
+
+        store.markDirty(player.id);
+
+        // === 1) Send back permanent ID first ===
+        Network.AssignId assign = new Network.AssignId();
+        assign.id = player.id;
+        assign.tickRate = tickRate;
+        boolean compressed = compression != Network.Compressed.NONE && (reg.compression & 1 << compression) != 0;
+        assign.compression = compressed ? compression : Network.Compressed.NONE;
+        connection.sendReliable(assign);
+
+        // === 2) Join is announced on the next tick to everyone in range ===
+        // snapshots for this connection start from a full state
+        ClientView view = new ClientView(connectionId, player.id, new SendRate(writeBufferSize));
+        view.connection = connection;
+        view.compressed.codec = assign.compression;
+        view.compressed.minBytes = compressAbove;
+        views.put(connectionId, view);
+
+        // === 3) Stream the players around them, the rest of the chunks follow on later ticks ===
+        view.joinChunks = joinState(player);
+        streamJoinState(view);
+    }
+
+    /**
+     * The online players near {@code player} as join state chunks. The grid still holds the
+     * last tick, whose neighbourhood of the player's cell covers its area of interest.
+     */
+    private Array<Network.WorldState> joinState(ServerMain.Player player) {
+        long key = grid.keyOf(player.x, player.y);
+        Array<Network.WorldState> chunks = joinStates.get(key);
+        if (chunks == null) {
+            joinScratch.clear();
+            grid.neighbourhood(player.x, player.y, joinScratch);
+            chunks = worldState(joinScratch, maxUpdatesPerSnapshot);
+            joinStates.put(key, chunks);
+        }
+        return chunks;
+    }
+
+    /** {@code players} split into WorldState chunks of at most {@code chunkSize} each. */
+    public static Array<Network.WorldState> worldState(Array<ServerMain.Player> players, int chunkSize) {
+        int partCount = Math.max(1, (players.size + chunkSize - 1) / chunkSize);
+        Array<Network.WorldState> chunks = new Array<>(true, partCount, Network.WorldState.class);
+        for (int part = 0; part < partCount; part++) {
+            Network.WorldState chunk = new Network.WorldState();
+            chunk.part = part;
+            chunk.partCount = partCount;
+            int from = part * chunkSize, to = Math.min(from + chunkSize, players.size);
+            chunk.players = new Network.PlayerUpdate[to - from];
+            for (int i = from; i < to; i++) {
+                ServerMain.Player p = players.get(i);
+                Network.PlayerUpdate u = new Network.PlayerUpdate();
+                u.id = p.id;
+                u.x = p.x;
+                u.y = p.y;
+                u.shape = p.shape;
+                chunk.players[i - from] = u;
+            }
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * Sends the view's next join chunks while its TCP write buffer holds less than
+     * {@link #joinBacklogBytes}, leaving room for events; the rest wait for a later tick.
+     */
+    private void streamJoinState(ClientView view) {
+        Array<Network.WorldState> chunks = view.joinChunks;
+        Transport.Link connection = view.connection;
+        while (view.joinChunksSent < chunks.size && connection.isConnected()
+                && connection.queuedBytes() < joinBacklogBytes) {
+            connection.sendReliable(view.bulk(chunks.get(view.joinChunksSent++)));
+        }
+        if (view.joinChunksSent == chunks.size || !connection.isConnected()) view.joinChunks = null;
+    }
+
+    public void disconnect(int connectionId) {
+        ClientView view = views.remove(connectionId);
+        if (view == null) return;
+        ServerMain.Player p = players.getOnline(view.playerId);
+        if (p == null || p.connectionId != connectionId) return;
+
+        p.connectionId = -1;
+        store.markDirty(p.id); // before it is cached, so it stays there until stored
+        players.setOffline(p);
+        simulation.remove(p.id);
+        System.out.println("Player " + p.name + " disconnected.");
+        // PlayerLeft goes out on the next tick to everyone who could see them
+    }
+
+    private void handlePacket(int kind, int connectionId, int a, int b) {
+        ClientView view = views.get(connectionId);
+        if (view == null) return;
+        if (kind == PacketRing.INPUT) {
+            input(view, a, b);
+        } else if (kind == PacketRing.ACK) {
+            view.acknowledge(a);
+        }
+    }
+
+    /** Queues one command for the player's next simulation step. */
+    private void input(ClientView view, int sequence, int input) {
+        // batches overlap, so most commands arrive more than once
+        if (sequence <= view.inputSequence) return;
+        // frozen while another zone takes over, the client resends whatever it doesn't see applied
+        if (handingOff.containsKey(view.playerId)) return;
+        // over budget: not applied, the client resends it until it shows up in a snapshot
+        if (view.inputBudget < 1) return;
+        if (!simulation.input(view.playerId, input)) return;
+
+        view.inputBudget--;
+        view.inputSequence = sequence;
+    }
+
+    // ---- Tick ----
+    /**
+     * Runs the commands received since the last tick, then sends every client the
+     * enter/leave events and one delta snapshot for its area of interest.
+     */
+    public void tick() throws InterruptedException {
+        long start = System.nanoTime();
+        tick++;
+        joinStates.clear(); // the grid moves on, and with it what a joining client should see
+
+        Runnable command;
+        while ((command = commands.poll()) != null && command != BARRIER) {
+            command.run();
+        }
+        // after the commands, so inputs from a client that just registered find its view
+        for (ClientView view : views.values()) {
+            view.inputBudget = Math.min(view.inputBudget + inputsPerTick, maxInputBurst);
+        }
+        packets.drain(packetHandler);
+        long commandsDone = System.nanoTime();
+        Metrics.TICK_COMMANDS.record(commandsDone - start);
+
+        simulation.step();
+        long simulated = System.nanoTime();
+        Metrics.TICK_SIMULATION.record(simulated - commandsDone);
+
+        grid.clear();
+        for (ServerMain.Player p : players.online()) {
+            grid.add(p);
+            if (zone != null) checkBorder(p);
+        }
+        onlineCount = players.onlineCount();
+        registeredCount = players.registered();
+        cachedCount = players.cached();
+
+        // Group nearby viewers into the same partition so each worker queries the same few cells
+        sortedViews.clear();
+        for (ClientView view : views.values()) {
+            ServerMain.Player self = players.getOnline(view.playerId);
+            if (self == null) continue;
+            view.cell = grid.keyOf(self.x, self.y);
+            sortedViews.add(view);
+        }
+        viewSort.sort(sortedViews.items, BY_CELL, 0, sortedViews.size);
+
+        int perPartition = (sortedViews.size + partitions.length - 1) / partitions.length;
+        running.clear();
+        for (int i = 0; i < partitions.length && i * perPartition < sortedViews.size; i++) {
+            Partition partition = partitions[i];
+            partition.from = i * perPartition;
+            partition.to = Math.min(partition.from + perPartition, sortedViews.size);
+            if (i == 0) continue; // the simulation thread takes the first one itself
+            running.add(workers.submit(partition));
+        }
+        if (!sortedViews.isEmpty()) partitions[0].run();
+
+        // players and the grid must not change until every worker is done with them
+        for (Future<?> f : running) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+
+        long end = System.nanoTime();
+        Metrics.TICK_BROADCAST.record(end - simulated);
+        Metrics.TICK.record(end - start);
+        if (end - start > tickNanos) Metrics.TICK_OVERRUNS.increment();
+    }
+
+    // ---- Zones ----
+    // Retry a handoff whose answer never came, e.g. because the coordinator restarted
+    private static final int HANDOFF_RETRY_SECONDS = 1;
+
+    private void checkBorder(ServerMain.Player p) {
+        int target = zone.zones.handoffTarget(zone.zone, p.x);
+        if (target == zone.zone) return;
+        int started = handingOff.get(p.id, -1);
+        if (started >= 0 && tick - started < HANDOFF_RETRY_SECONDS * tickRate) return;
+        handingOff.put(p.id, tick);
+        zone.transfer(p, target);
+    }
+
+    /** The coordinator connected: tell it who lives here. */
+    void zoneConnected() {
+        zone.hello(players);
+    }
+
+    /** Another zone (or the coordinator, for a new player) hands us a player; store it, then confirm. */
+    void admit(Network.PlayerTransfer transfer) {
+        ServerMain.Player p = players.get(transfer.id);
+        boolean known = p != null;
+        if (!known) p = new ServerMain.Player(transfer.id, transfer.name, -1);
+        p.name = transfer.name;
+        p.x = transfer.x;
+        p.y = transfer.y;
+        p.shape = transfer.shape;
+        nextPlayerId = Math.max(nextPlayerId, p.id + 1);
+        store.markDirty(p.id);
+        if (!known) players.add(p); // offline until its client arrives, so into the cache
+        zone.admitted(transfer);
+    }
+
+    /** The other zone has the player now: forget it here and send its client over. */
+    void handedOff(int playerId, int toZone) {
+        if (handingOff.remove(playerId, -1) < 0) return; // a duplicate answer to a retry
+        ServerMain.Player p = players.remove(playerId);
+        simulation.remove(playerId);
+        store.markRemoved(playerId);
+        Metrics.HANDOFFS.increment();
+        if (p == null || p.connectionId == -1) return;
+
+        System.out.println("Handed " + p.name + " (" + p.id + ") to zone " + toZone);
+        ClientView view = views.remove(p.connectionId);
+        if (view != null) view.connection.sendReliable(zone.zones.redirect(toZone, 0));
+    }
+
+    // ---- Gauges, readable from any thread ----
+    public int getOnlineCount() { return onlineCount; }
+    public int getRegisteredCount() { return registeredCount; }
+    public int getCachedCount() { return cachedCount; }
+
+    /** A slice of {@link #sortedViews} processed by one worker, with its own scratch space. */
+    private class Partition implements Runnable {
+        int from, to;
+        final Array<ServerMain.Player> inRange = new Array<>(true, 64, ServerMain.Player.class);
+        final Sort sort = new Sort(); // not inRange.sort(), libGDX shares one sorter between all threads
+
+        @Override
+        public void run() {
+            for (int i = from; i < to; i++) {
+                ClientView view = sortedViews.get(i);
+                if (!view.rate.due(tick, view.connection)) {
+                    // nothing is lost by skipping: the next events and delta catch up from what the client has
+                    if (view.joinChunks != null) streamJoinState(view);
+                    continue;
+                }
+                ServerMain.Player self = players.getOnline(view.playerId);
+
+                inRange.clear();
+                grid.query(self.x, self.y, aoiRadius, inRange);
+                sort.sort(inRange.items, BY_ID, 0, inRange.size);
+
+                SnapshotFrame frame = view.frameFor(tick);
+                for (int j = 0; j < inRange.size; j++) {
+                    ServerMain.Player p = inRange.get(j);
+                    frame.add(p.id, p.x, p.y, p.shape);
+                }
+                Array<Network.EventBatch> events = view.updateInterest(frame, inRange);
+                if (view.joinChunks != null) streamJoinState(view);
+
+                // Straight to the link: KryoNet's Server.sendToTCP/UDP(id) search all connections for it.
+                // Batches and parts are reused next tick, which is fine since sending serializes them right away.
+                for (int j = 0; j < events.size; j++) {
+                    view.connection.sendReliable(view.bulk(events.get(j)));
+                }
+                // This view's delta snapshot against what it acked, split into parts, its own player included
+                Array<Network.WorldSnapshot> parts = view.encode(frame, maxUpdatesPerSnapshot);
+                for (int j = 0; j < parts.size; j++) {
+                    view.connection.sendUnreliable(parts.get(j));
+                }
+            }
+        }
+    }
+}
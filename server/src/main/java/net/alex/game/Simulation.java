@@ -0,0 +1,189 @@
+package net.alex.game;
+
+import com.badlogic.ashley.core.Component;
+import com.badlogic.ashley.core.ComponentMapper;
+import com.badlogic.ashley.core.Engine;
+import com.badlogic.ashley.core.Entity;
+import com.badlogic.ashley.core.EntityListener;
+import com.badlogic.ashley.core.EntitySystem;
+import com.badlogic.ashley.core.Family;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ByteArray;
+import com.badlogic.gdx.utils.IntMap;
+import net.alex.game.network.PlayerInput;
+
+/**
+ * The authoritative simulation, on an Ashley {@link Engine} stepped once per tick with the
+ * tick's fixed time step. Every online player is an entity whose {@link ServerMain.Player}
+ * is its main component, next to its {@link Input}. The systems only iterate the entities that
+ * have something to do instead of all of them:
+ * <ul>
+ *   <li>{@link MovementSystem}: the awake ones, with queued commands. Each command moves one fixed
+ *   {@link PlayerInput#STEP}, the same way the client predicted it.</li>
+ *   <li>{@link ChangeSystem}: the ones that changed during this step, so the store writes them.</li>
+ * </ul>
+ * Both keep their entities' components in a dense array rather than in a family of tag
+ * components: Ashley finds an entity that leaves a family with a linear search, so waking and
+ * putting thousands of entities to sleep every tick through families would cost quadratic time,
+ * and going through the entity to its components is two more cache misses per entity.
+ *
+ * <p>Simulation thread only, like the rest of {@link ServerWorld}.
+ */
+public class Simulation {
+    // ---- Components ----
+    /** Commands received for the entity since the last step, oldest first, and its player. */
+    public static class Input implements Component {
+        final ServerMain.Player player;
+        final ByteArray commands = new ByteArray(false, 8);
+        boolean awake; // in MovementSystem's list
+
+        Input(ServerMain.Player player) {
+            this.player = player;
+        }
+    }
+
+    private static final Family SIMULATED = Family.all(ServerMain.Player.class, Input.class).get();
+    private static final ComponentMapper<Input> INPUT = ComponentMapper.getFor(Input.class);
+
+    private final Engine engine = new Engine();
+    private final IntMap<Entity> entities = new IntMap<>(); // by player id
+    private final IntMap<Input> inputs = new IntMap<>();
+    private final MovementSystem movement;
+    private final ChangeSystem changes;
+    private final float stepSeconds;
+
+    /** {@code changed} is told the id of every player that changed, once per step. */
+    public Simulation(int tickRate, ChangeListener changed) {
+        this.stepSeconds = 1f / tickRate;
+        changes = new ChangeSystem(1, changed);
+        movement = new MovementSystem(0, changes);
+        engine.addSystem(movement);
+        engine.addSystem(changes);
+        engine.addEntityListener(SIMULATED, new EntityListener() {
+            @Override
+            public void entityAdded(Entity entity) {
+            }
+
+            @Override
+            public void entityRemoved(Entity entity) {
+                movement.sleep(entity);
+                changes.forget(entity);
+            }
+        });
+    }
+
+    public interface ChangeListener {
+        void changed(int playerId);
+    }
+
+    // ---- Entities ----
+    public void add(ServerMain.Player player) {
+        if (entities.containsKey(player.id)) return;
+        Entity e = new Entity();
+        e.add(player);
+        Input input = new Input(player);
+        e.add(input);
+        engine.addEntity(e);
+        entities.put(player.id, e);
+        inputs.put(player.id, input);
+    }
+
+    public void remove(int playerId) {
+        Entity e = entities.remove(playerId);
+        inputs.remove(playerId);
+        if (e != null) engine.removeEntity(e);
+    }
+
+    /** Queues a command for the next step; false if there is no such player. */
+    public boolean input(int playerId, int command) {
+        Input input = inputs.get(playerId);
+        if (input == null) return false;
+        input.commands.add((byte) command);
+        if (!input.awake) {
+            input.awake = true;
+            movement.awake.add(input);
+        }
+        return true;
+    }
+
+    /** One fixed step: every queued command is applied, changes are reported. */
+    public void step() {
+        engine.update(stepSeconds);
+    }
+
+    public int size() {
+        return entities.size;
+    }
+
+    // ---- Systems ----
+    /** Applies the queued commands of awake entities, then lets them sleep until the next one. */
+    static class MovementSystem extends EntitySystem {
+        final Array<Input> awake = new Array<>(false, 256, Input.class);
+        private final ChangeSystem changes;
+
+        MovementSystem(int priority, ChangeSystem changes) {
+            super(priority);
+            this.changes = changes;
+        }
+
+        @Override
+        public void update(float deltaTime) {
+            Input[] inputs = awake.items;
+            for (int i = 0, n = awake.size; i < n; i++) process(inputs[i]);
+            awake.clear();
+        }
+
+        private void process(Input input) {
+            ServerMain.Player p = input.player;
+            ByteArray commands = input.commands;
+            float x = p.x, y = p.y;
+            int shape = p.shape;
+            byte[] items = commands.items;
+            for (int i = 0, n = commands.size; i < n; i++) {
+                int command = items[i];
+                x += PlayerInput.dx(command);
+                y += PlayerInput.dy(command);
+                int s = PlayerInput.shape(command);
+                if (s != 0) shape = s;
+            }
+            commands.clear();
+            input.awake = false;
+            if (x == p.x && y == p.y && shape == p.shape) return;
+            p.x = x;
+            p.y = y;
+            p.shape = shape;
+            changes.moved.add(p);
+        }
+
+        /** Removed from the engine: out of the list, if it was in it. Rare, so a search is fine. */
+        void sleep(Entity entity) {
+            Input input = INPUT.get(entity);
+            if (input == null || !input.awake) return;
+            input.awake = false;
+            input.commands.clear();
+            awake.removeValue(input, true);
+        }
+    }
+
+    /** Reports what moved this step. */
+    static class ChangeSystem extends EntitySystem {
+        final Array<ServerMain.Player> moved = new Array<>(false, 256, ServerMain.Player.class);
+        private final ChangeListener listener;
+
+        ChangeSystem(int priority, ChangeListener listener) {
+            super(priority);
+            this.listener = listener;
+        }
+
+        @Override
+        public void update(float deltaTime) {
+            ServerMain.Player[] players = moved.items;
+            for (int i = 0, n = moved.size; i < n; i++) listener.changed(players[i].id);
+            moved.clear();
+        }
+
+        void forget(Entity entity) {
+            moved.removeValue(entity.getComponent(ServerMain.Player.class), true);
+        }
+    }
+}
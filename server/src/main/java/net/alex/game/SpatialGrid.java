@@ -0,0 +1,82 @@
+package net.alex.game;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * Uniform hash grid over player positions, rebuilt every tick.
+ * Cells are only created where players are and their arrays are reused between ticks.
+ * Queries are read-only and may run on several threads once the grid is built.
+ */
+public class SpatialGrid {
+    private final float cellSize;
+    private final LongMap<Array<ServerMain.Player>> cells = new LongMap<>();
+
+    public SpatialGrid(float cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public void clear() {
+        for (LongMap.Entries<Array<ServerMain.Player>> it = cells.entries(); it.hasNext(); ) {
+            Array<ServerMain.Player> cell = it.next().value;
+            // drop cells that stayed empty for a whole tick so the map doesn't grow forever
+            if (cell.isEmpty()) it.remove();
+            else cell.clear();
+        }
+    }
+
+    public void add(ServerMain.Player p) {
+        long key = key(cell(p.x), cell(p.y));
+        Array<ServerMain.Player> cell = cells.get(key);
+        if (cell == null) {
+            cell = new Array<>(false, 16);
+            cells.put(key, cell);
+        }
+        cell.add(p);
+    }
+
+    /** Adds every player within {@code radius} of (x, y) to {@code out}. */
+    public void query(float x, float y, float radius, Array<ServerMain.Player> out) {
+        float r2 = radius * radius;
+        int minX = cell(x - radius), maxX = cell(x + radius);
+        int minY = cell(y - radius), maxY = cell(y + radius);
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                Array<ServerMain.Player> cell = cells.get(key(cx, cy));
+                if (cell == null) continue;
+                for (int i = 0; i < cell.size; i++) {
+                    ServerMain.Player p = cell.get(i);
+                    float dx = p.x - x, dy = p.y - y;
+                    if (dx * dx + dy * dy <= r2) out.add(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds every player in the cell of (x, y) and the eight around it, a superset of what a
+     * query of up to one cell size returns from anywhere in that cell.
+     */
+    public void neighbourhood(float x, float y, Array<ServerMain.Player> out) {
+        int cx = cell(x), cy = cell(y);
+        for (int nx = cx - 1; nx <= cx + 1; nx++) {
+            for (int ny = cy - 1; ny <= cy + 1; ny++) {
+                Array<ServerMain.Player> cell = cells.get(key(nx, ny));
+                if (cell != null) out.addAll(cell);
+            }
+        }
+    }
+
+    /** Key of the cell containing (x, y); nearby positions get equal or close keys. */
+    public long keyOf(float x, float y) {
+        return key(cell(x), cell(y));
+    }
+
+    private int cell(float v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return (long) cx << 32 | (cy & 0xFFFFFFFFL);
+    }
+}
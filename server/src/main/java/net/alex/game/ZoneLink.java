@@ -0,0 +1,130 @@
+package net.alex.game;
+
+import com.esotericsoftware.kryonet.Client;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+import net.alex.game.network.Network;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A zone server's TCP connection to the {@link Coordinator}. On connect it reports the players
+ * this zone owns; afterwards it carries player transfers in both directions. Received transfers
+ * become commands for the simulation thread, like client packets do. Reconnects by itself if
+ * the coordinator restarts.
+ */
+public class ZoneLink {
+    private static final int HELLO_CHUNK = 256; // player ids per ZoneHello, well below the object buffer
+    private static final long RECONNECT_MS = 2000;
+
+    public final ZoneMap zones;
+    public final int zone;
+    private final String coordinatorHost;
+    private final Client client = new Client();
+    private ServerWorld world;
+    private volatile boolean running;
+
+    public ZoneLink(ZoneMap zones, int zone, String coordinatorHost) {
+        if (zone < 0 || zone >= zones.count()) throw new IllegalArgumentException("No zone " + zone + " in -Dzones");
+        this.zones = zones;
+        this.zone = zone;
+        this.coordinatorHost = coordinatorHost;
+        Network.register(client);
+    }
+
+    public void start(ServerWorld world) {
+        this.world = world;
+        client.addListener(new Listener() {
+            @Override
+            public void connected(Connection c) {
+                System.out.println("🧭 Zone " + zone + " connected to coordinator");
+                world.submit(world::zoneConnected);
+            }
+
+            @Override
+            public void disconnected(Connection c) {
+                System.out.println("⚠️ Zone " + zone + " lost the coordinator, reconnecting");
+            }
+
+            @Override
+            public void received(Connection c, Object object) {
+                if (object instanceof Network.PlayerTransfer transfer) {
+                    world.submit(() -> world.admit(transfer));
+                } else if (object instanceof Network.TransferDone done) {
+                    world.submit(() -> world.handedOff(done.id, done.toZone));
+                }
+            }
+        });
+        client.start();
+
+        running = true;
+        Thread connector = new Thread(() -> {
+            while (running) {
+                if (!client.isConnected()) {
+                    try {
+                        // UDP too, unused: KryoNet drops TCP-only clients of a server bound to UDP
+                        client.connect(5000, coordinatorHost, Network.tcpPort, Network.udpPort);
+                    } catch (IOException e) {
+                        System.out.println("❌ Coordinator at " + coordinatorHost + " unreachable: " + e.getMessage());
+                    }
+                }
+                try {
+                    Thread.sleep(RECONNECT_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "ZoneLink");
+        connector.setDaemon(true);
+        connector.start();
+    }
+
+    public void stop() {
+        running = false;
+        client.stop();
+    }
+
+    // ---- Simulation thread ----
+    /** Reports every player this zone owns, so the coordinator knows where to send them. */
+    void hello(PlayerRegistry players) {
+        int[] ids = new int[HELLO_CHUNK];
+        int[] count = {0};
+        players.forEachId(id -> {
+            if (count[0] == ids.length) {
+                sendHello(ids, count[0], false);
+                count[0] = 0;
+            }
+            ids[count[0]++] = id;
+        });
+        sendHello(ids, count[0], true);
+    }
+
+    private void sendHello(int[] ids, int count, boolean last) {
+        Network.ZoneHello hello = new Network.ZoneHello();
+        hello.zone = zone;
+        hello.playerIds = Arrays.copyOf(ids, count);
+        hello.last = last;
+        client.sendTCP(hello);
+    }
+
+    void transfer(ServerMain.Player p, int toZone) {
+        Network.PlayerTransfer transfer = new Network.PlayerTransfer();
+        transfer.id = p.id;
+        transfer.name = p.name;
+        transfer.x = p.x;
+        transfer.y = p.y;
+        transfer.shape = p.shape;
+        transfer.fromZone = zone;
+        transfer.toZone = toZone;
+        client.sendTCP(transfer);
+    }
+
+    void admitted(Network.PlayerTransfer transfer) {
+        Network.TransferDone done = new Network.TransferDone();
+        done.id = transfer.id;
+        done.fromZone = transfer.fromZone;
+        done.toZone = zone;
+        client.sendTCP(done);
+    }
+}
@@ -0,0 +1,68 @@
+package net.alex.game;
+
+import net.alex.game.network.Network;
+
+/**
+ * How the world is split between zone servers: strips along x, {@code width} units each,
+ * the first and last one open-ended. Coordinator and zones read the same system properties:
+ * <pre>
+ * -Dzones=127.0.0.1:54565:54787,127.0.0.1:54575:54797   host:tcpPort:udpPort of zone 0, 1, ...
+ * -DzoneWidth=2000
+ * </pre>
+ */
+public class ZoneMap {
+    // Players are handed over only this far past a border, so walking along it doesn't ping-pong
+    public static final float HANDOFF_MARGIN = 50;
+
+    private final String[] hosts;
+    private final int[] tcpPorts, udpPorts;
+    private final float width;
+
+    public ZoneMap(String zones, float width) {
+        String[] entries = zones.split(",");
+        hosts = new String[entries.length];
+        tcpPorts = new int[entries.length];
+        udpPorts = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] parts = entries[i].trim().split(":");
+            if (parts.length != 3) throw new IllegalArgumentException("Zone is not host:tcpPort:udpPort: " + entries[i]);
+            hosts[i] = parts[0];
+            tcpPorts[i] = Integer.parseInt(parts[1]);
+            udpPorts[i] = Integer.parseInt(parts[2]);
+        }
+        this.width = width;
+    }
+
+    /** The configured zones, or null if this server is the whole world. */
+    public static ZoneMap fromSystemProperties() {
+        String zones = System.getProperty("zones");
+        if (zones == null || zones.isEmpty()) return null;
+        return new ZoneMap(zones, Float.parseFloat(System.getProperty("zoneWidth", "2000")));
+    }
+
+    public int count() { return hosts.length; }
+    public int tcpPort(int zone) { return tcpPorts[zone]; }
+    public int udpPort(int zone) { return udpPorts[zone]; }
+
+    public int zoneOf(float x) {
+        int zone = (int) Math.floor(x / width);
+        return Math.max(0, Math.min(hosts.length - 1, zone));
+    }
+
+    /** The zone {@code x} belongs to, unless it is within {@link #HANDOFF_MARGIN} of {@code current}. */
+    public int handoffTarget(int current, float x) {
+        int target = zoneOf(x);
+        if (target == current) return current;
+        float back = target > current ? x - HANDOFF_MARGIN : x + HANDOFF_MARGIN;
+        return zoneOf(back) == target ? target : current;
+    }
+
+    public Network.ZoneRedirect redirect(int zone, int playerId) {
+        Network.ZoneRedirect redirect = new Network.ZoneRedirect();
+        redirect.host = hosts[zone];
+        redirect.tcpPort = tcpPorts[zone];
+        redirect.udpPort = udpPorts[zone];
+        redirect.playerId = playerId;
+        return redirect;
+    }
+}
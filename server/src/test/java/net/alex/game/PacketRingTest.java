@@ -0,0 +1,48 @@
+package net.alex.game;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PacketRingTest {
+    private int lastSequence = -1;
+
+    @Test
+    void barrierFitsIntoAFullRing() {
+        PacketRing ring = new PacketRing(8);
+        int sequence = 0;
+        while (ring.offer(PacketRing.INPUT, 1, sequence, 0)) sequence++;
+        assertEquals(7, sequence); // one slot kept for the barrier
+        assertEquals(1, ring.getDropped());
+
+        ring.barrier();
+        assertThrows(IllegalStateException.class, ring::barrier);
+        assertEquals(7, ring.drain(this::handle));
+        assertEquals(6, lastSequence);
+    }
+
+    @Test
+    void drainStopsAtTheBarrier() {
+        PacketRing ring = new PacketRing(8);
+        for (int lap = 0; lap < 5; lap++) {
+            ring.offer(PacketRing.INPUT, 1, 2 * lap, 0);
+            ring.barrier();
+            ring.offer(PacketRing.INPUT, 1, 2 * lap + 1, 0); // the next tick's
+            assertEquals(lap == 0 ? 1 : 2, ring.drain(this::handle));
+            assertEquals(2 * lap, lastSequence);
+        }
+        assertEquals(1, ring.drain(this::handle));
+        assertEquals(9, lastSequence);
+        assertEquals(0, ring.drain(this::handle));
+        assertTrue(ring.offer(PacketRing.ACK, 1, 0, 0));
+    }
+
+    private void handle(int kind, int id, int a, int b) {
+        if (kind == PacketRing.INPUT) {
+            assertEquals(lastSequence + 1, a);
+            lastSequence = a;
+        }
+    }
+}
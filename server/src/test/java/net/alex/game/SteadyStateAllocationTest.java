@@ -0,0 +1,137 @@
+package net.alex.game;
+
+import com.badlogic.gdx.utils.Array;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import net.alex.game.network.Network;
+import net.alex.game.network.PlayerInput;
+import net.alex.game.network.SnapshotFrame;
+import net.alex.game.network.Transport;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The per-tick update path must not allocate once warmed up: the server encodes a delta for a
+ * client and serializes its parts, the client reads them into pooled snapshots, applies them to
+ * its frame history and frees them, and its input and ack go through the {@link PacketRing}.
+ * Allocation is measured with the JVM's per-thread counter around a batch of those ticks.
+ *
+ * <p>Even interpreted the path allocates nothing, but while the JIT is still swapping in compiled
+ * versions a deoptimization can put a few scalar-replaced objects on the heap. So the warm-up is
+ * long, and a batch is measured up to {@link #ROUNDS} times: an allocation per tick shows up in
+ * every one of them, a compiler transition in one at most.
+ */
+class SteadyStateAllocationTest {
+    private static final int ENTITIES = 200;
+    private static final int MAX_PER_PART = 64; // as ServerMain sends them
+    private static final int WARMUP_TICKS = 20_000;
+    private static final int MEASURED_TICKS = 2_000;
+    private static final int ROUNDS = 3;
+
+    // Server side
+    private final Kryo serverKryo = kryo();
+    private final Output output = new Output(4096, -1);
+    private final ClientView view = new ClientView(1, 1, new SendRate(16384));
+    private final PacketRing ring = new PacketRing(1024);
+    private final PacketRing.Handler handler = this::handle;
+    private int inputsApplied;
+
+    // Client side
+    private final Kryo clientKryo = kryo();
+    private final Input input = new Input();
+    private final SnapshotFrame[] history = new SnapshotFrame[SnapshotFrame.HISTORY];
+    private final Network.WorldSnapshot[] assembling = new Network.WorldSnapshot[8];
+    private SnapshotFrame latest = SnapshotFrame.EMPTY;
+
+    @Test
+    void updatePathDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadAllocatedMemorySupported(), "needs per-thread allocation counters");
+        threads.setThreadAllocatedMemoryEnabled(true);
+        view.connection = new IdleLink();
+
+        int tick = 0;
+        for (; tick < WARMUP_TICKS; tick++) tick(tick);
+        long allocated = -1;
+        int rounds = 0;
+        while (allocated != 0 && rounds < ROUNDS) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int end = tick + MEASURED_TICKS; tick < end; tick++) tick(tick);
+            allocated = threads.getCurrentThreadAllocatedBytes() - before;
+            rounds++;
+        }
+
+        assertEquals(0L, allocated, allocated + " bytes allocated over " + MEASURED_TICKS + " ticks");
+        assertEquals(WARMUP_TICKS + rounds * MEASURED_TICKS, inputsApplied);
+        assertEquals(tick - 1, latest.tick);
+    }
+
+    private void tick(int tick) {
+        // === Server: every other entity moves, more changes than fit in one part ===
+        SnapshotFrame frame = view.frameFor(tick);
+        for (int id = 1; id <= ENTITIES; id++) {
+            float moved = (id + tick) % 2 == 0 ? tick * 0.25f : 0f;
+            frame.add(id, id * 10f + moved, id * -5f, 1 + id % 3);
+        }
+        Array<Network.WorldSnapshot> parts = view.encode(frame, MAX_PER_PART);
+
+        // === Wire and client: read into pooled parts, apply once all are in, free ===
+        int partCount = parts.size;
+        for (int i = 0; i < partCount; i++) {
+            output.reset();
+            serverKryo.writeObject(output, parts.get(i));
+            input.setBuffer(output.getBuffer(), 0, output.position());
+            assembling[i] = clientKryo.readObject(input, Network.WorldSnapshot.class);
+        }
+        apply(assembling, partCount);
+        for (int i = 0; i < partCount; i++) {
+            Network.free(clientKryo, assembling[i]);
+            assembling[i] = null;
+        }
+
+        // === Client to server: one input command and the ack, through the ring ===
+        ring.offer(PacketRing.INPUT, view.connectionId, tick + 1, PlayerInput.pack(PlayerInput.UP, 1));
+        ring.offer(PacketRing.ACK, view.connectionId, latest.tick, 0);
+        ring.drain(handler);
+    }
+
+    /** What ClientManager does with a complete snapshot. */
+    private void apply(Network.WorldSnapshot[] parts, int partCount) {
+        Network.WorldSnapshot first = parts[0];
+        SnapshotFrame baseline = first.baselineTick < 0 ? SnapshotFrame.EMPTY : history[first.baselineTick % SnapshotFrame.HISTORY];
+        assertEquals(first.baselineTick, baseline.tick, "baseline still in the history");
+        SnapshotFrame frame = history[first.tick % SnapshotFrame.HISTORY];
+        if (frame == null || frame == baseline || frame == latest) frame = new SnapshotFrame(first.tick, 64);
+        SnapshotFrame.apply(baseline, parts, partCount, frame);
+        history[frame.tick % SnapshotFrame.HISTORY] = frame;
+        latest = frame;
+    }
+
+    private void handle(int kind, int connectionId, int a, int b) {
+        if (kind == PacketRing.ACK) view.acknowledge(a);
+        else if (kind == PacketRing.INPUT) inputsApplied++;
+    }
+
+    private static Kryo kryo() {
+        Kryo kryo = new Kryo();
+        Network.register(kryo);
+        return kryo;
+    }
+
+    /** A link with nothing queued and no round trip measured, so the send rate stays at its maximum. */
+    private static class IdleLink implements Transport.Link {
+        @Override public int id() { return 1; }
+        @Override public void sendReliable(Object packet) {}
+        @Override public void sendUnreliable(Object packet) {}
+        @Override public boolean isConnected() { return true; }
+        @Override public int queuedBytes() { return 0; }
+        @Override public int rtt() { return -1; }
+        @Override public void updateRtt() {}
+        @Override public void close() {}
+    }
+}